@@ -0,0 +1,28 @@
+package com.gb.guyom.utils.log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+/**
+ * Appender that formats every event and throws it away.
+ *
+ * <p>
+ * Unlike Logback's {@code NOPAppender}, the message is formatted, so benchmarks pay for the rendering of the log line
+ * but not for any I/O.
+ *
+ * @version $Id$
+ */
+public class DiscardingAppender extends AppenderBase<ILoggingEvent> {
+
+	private volatile int length;
+
+	@Override
+	protected void append(final ILoggingEvent event) {
+		length = event.getFormattedMessage().length();
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.gb.guyom.utils.log;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call overhead of the {@link Loggable} aspect.
+ *
+ * <p>
+ * Every scenario calls a tiny method, so the score is the cost of the advice itself. {@link #unadvised()} is the
+ * baseline. Run with {@code gradle jmh}, which adds the allocation profiler ({@code -prof gc}); the single threaded
+ * scenarios are repeated under contention by {@link LoggableContendedBenchmark}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggableBenchmark {
+
+	private static final IllegalStateException FAILURE = new IllegalStateException("failure");
+
+	private final Service service = new Service();
+	private final AnnotatedService annotatedService = new AnnotatedService();
+	private final String text = "hello";
+	private final String largeText;
+	private final Integer[] array;
+	private final int[] primitives;
+
+	public LoggableBenchmark() {
+		final char[] chars = new char[10000];
+		Arrays.fill(chars, 'x');
+		largeText = new String(chars);
+		array = new Integer[100];
+		for (int pos = 0; pos < array.length; ++pos) {
+			array[pos] = pos;
+		}
+		primitives = new int[100];
+		for (int pos = 0; pos < primitives.length; ++pos) {
+			primitives[pos] = pos;
+		}
+	}
+
+	@Benchmark
+	public String unadvised() {
+		return service.plain(text);
+	}
+
+	@Benchmark
+	public String disabled() {
+		return service.disabled(text);
+	}
+
+	@Benchmark
+	public String histogram() {
+		return service.measured(text);
+	}
+
+	@Benchmark
+	public String enabled() {
+		return service.enabled(text);
+	}
+
+	@Benchmark
+	public String enabledOnClass() {
+		return annotatedService.enabled(text);
+	}
+
+	@Benchmark
+	public String prepend() {
+		return service.prepended(text);
+	}
+
+	@Benchmark
+	public Object thrown() {
+		Object caught = null;
+		try {
+			service.fail();
+		}
+		catch (final IllegalStateException ex) {
+			caught = ex;
+		}
+		return caught;
+	}
+
+	@Benchmark
+	public Object thrownIgnored() {
+		Object caught = null;
+		try {
+			service.failIgnored();
+		}
+		catch (final IllegalStateException ex) {
+			caught = ex;
+		}
+		return caught;
+	}
+
+	@Benchmark
+	public String largeTrim() {
+		return service.large(largeText);
+	}
+
+	@Benchmark
+	public int array() {
+		return service.length(array);
+	}
+
+	@Benchmark
+	public int primitiveArray() {
+		return service.length(primitives);
+	}
+
+	@Benchmark
+	public String logThis() {
+		return service.self(text);
+	}
+
+	/**
+	 * Methods under test, annotated one by one.
+	 */
+	public static class Service {
+
+		public String plain(final String text) {
+			return text;
+		}
+
+		@Loggable(Loggable.Level.TRACE)
+		public String disabled(final String text) {
+			return text;
+		}
+
+		@Loggable(Loggable.Level.INFO)
+		public String enabled(final String text) {
+			return text;
+		}
+
+		@Loggable(value = Loggable.Level.TRACE, histogram = true)
+		public String measured(final String text) {
+			return text;
+		}
+
+		@Loggable(value = Loggable.Level.INFO, prepend = true)
+		public String prepended(final String text) {
+			return text;
+		}
+
+		@Loggable(Loggable.Level.INFO)
+		public void fail() {
+			throw FAILURE;
+		}
+
+		@Loggable(value = Loggable.Level.INFO, ignore = IllegalStateException.class)
+		public void failIgnored() {
+			throw FAILURE;
+		}
+
+		@Loggable(value = Loggable.Level.INFO, trim = -1)
+		public String large(final String text) {
+			return text;
+		}
+
+		@Loggable(Loggable.Level.INFO)
+		public int length(final Integer[] array) {
+			return array.length;
+		}
+
+		@Loggable(Loggable.Level.INFO)
+		public int length(final int[] array) {
+			return array.length;
+		}
+
+		@Loggable(value = Loggable.Level.INFO, logThis = true)
+		public String self(final String text) {
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return "service";
+		}
+
+	}
+
+	/**
+	 * Methods under test, annotated through their class.
+	 */
+	@Loggable(Loggable.Level.INFO)
+	public static class AnnotatedService {
+
+		public String enabled(final String text) {
+			return text;
+		}
+
+	}
+
+}
@@ -0,0 +1,13 @@
+package com.gb.guyom.utils.log;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Scenarios of {@link LoggableBenchmark}, run by several threads sharing the same call sites.
+ *
+ * @version $Id$
+ */
+@Threads(4)
+public class LoggableContendedBenchmark extends LoggableBenchmark {
+
+}
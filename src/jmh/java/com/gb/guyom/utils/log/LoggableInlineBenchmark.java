@@ -0,0 +1,14 @@
+package com.gb.guyom.utils.log;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * Scenarios of {@link LoggableBenchmark}, advised before and after instead of around
+ * ({@code -Dloggable.advice=inline}): compare the allocation per call of {@code disabled} with the around advice.
+ *
+ * @version $Id$
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dloggable.advice=inline")
+public class LoggableInlineBenchmark extends LoggableBenchmark {
+
+}
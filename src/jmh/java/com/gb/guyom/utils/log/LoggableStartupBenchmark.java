@@ -0,0 +1,153 @@
+package com.gb.guyom.utils.log;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.math3.util.FastMath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup cost of the {@link Loggable} aspect, woven at compile time or at load time.
+ *
+ * <p>
+ * Each fork loads once the thousand classes of commons-math, none of them advised, through a class loader of its own
+ * that sees the {@code aop.xml} of the application, then calls the advised methods of {@link Startup} for the first
+ * time. The weaver of the application class loader is created before, by {@link #setup()}, whatever the agent.
+ *
+ * <p>
+ * Run with {@code gradle jmh -PjmhArgs=LoggableStartupBenchmark} for compile-time weaving, and with
+ * {@code gradle jmhLtw -PjmhArgs=LoggableStartupBenchmark} for load-time weaving by {@link LoggableAgent}; add
+ * {@code -PjmhAgent=<aspectjweaver.jar>} to the latter for the AspectJ agent, which weaves every class it is given,
+ * pointed at {@code META-INF/aop-loggable.xml} explicitly.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class LoggableStartupBenchmark {
+
+	@Setup
+	public void setup() {
+		new Warm().first("warm");
+	}
+
+	@Benchmark
+	public int startup() throws Exception {
+		int loaded = 0;
+		final URL jar = FastMath.class.getProtectionDomain().getCodeSource().getLocation();
+		try (URLClassLoader loader = new Isolated(jar);
+				JarFile file = new JarFile(new File(jar.toURI()))) {
+			final Enumeration<JarEntry> entries = file.entries();
+			while (entries.hasMoreElements()) {
+				final String name = entries.nextElement().getName();
+				if (name.endsWith(".class")) {
+					try {
+						Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, loader);
+						++loaded;
+					}
+					catch (final LinkageError ex) {
+						// not loadable alone
+					}
+				}
+			}
+		}
+		final Startup startup = new Startup();
+		return loaded + startup.first("a").length() + startup.second("b").length() + startup.third("c").length()
+				+ new AnnotatedStartup().first("d").length();
+	}
+
+	/**
+	 * Class loader of a jar, which loads its classes itself before asking its parent.
+	 */
+	private static final class Isolated extends URLClassLoader {
+
+		Isolated(final URL jar) {
+			super(new URL[] { jar }, LoggableStartupBenchmark.class.getClassLoader());
+		}
+
+		@Override
+		protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> type = findLoadedClass(name);
+				if (type == null) {
+					try {
+						type = findClass(name);
+					}
+					catch (final ClassNotFoundException ex) {
+						type = super.loadClass(name, false);
+					}
+				}
+				if (resolve) {
+					resolveClass(type);
+				}
+				return type;
+			}
+		}
+
+	}
+
+	/**
+	 * Advised method, called before the measurement.
+	 */
+	public static class Warm {
+
+		@Loggable
+		public String first(final String text) {
+			return text;
+		}
+
+	}
+
+	/**
+	 * Advised methods, called once per fork.
+	 */
+	public static class Startup {
+
+		@Loggable
+		public String first(final String text) {
+			return text;
+		}
+
+		@Loggable(Loggable.Level.DEBUG)
+		public String second(final String text) {
+			return text;
+		}
+
+		@Loggable(histogram = true)
+		public String third(final String text) {
+			return text;
+		}
+
+	}
+
+	/**
+	 * Class whose public methods are advised, called once per fork.
+	 */
+	@Loggable
+	public static class AnnotatedStartup {
+
+		public String first(final String text) {
+			return text;
+		}
+
+	}
+
+}
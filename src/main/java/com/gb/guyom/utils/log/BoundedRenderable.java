@@ -0,0 +1,23 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * An object that can render itself into a log line incrementally.
+ *
+ * <p>
+ * Implement it on large objects (DTOs, buffers, trees) passed to or returned by {@link Loggable} methods: instead of
+ * materializing the whole {@code toString()} to keep the first {@link Loggable#trim()} characters, the aspect calls
+ * {@link #renderTo(LoggableSink)}, which should stop as soon as {@link LoggableSink#isFull()}.
+ *
+ * @version $Id$
+ */
+public interface BoundedRenderable {
+
+	/**
+	 * Render this object.
+	 *
+	 * @param sink
+	 *            Where to render, check {@link LoggableSink#isFull()} to stop early
+	 */
+	void renderTo(LoggableSink sink);
+
+}
@@ -53,6 +53,10 @@ import java.util.concurrent.TimeUnit;
  * </pre>
  *
  * <p>
+ * A method returning a {@code CompletionStage} (a {@code CompletableFuture} for instance) is timed until the stage
+ * completes, and its actual result or exception is logged, with the limit and the ignored exceptions applied to it.
+ *
+ * <p>
  * You can ignore certain exception types, and they won't be logged when thrown. It is very useful when exceptions are
  * used to control flow (which is not a good practice, but is still used in some frameworks, for example in JAX-RS):
  *
@@ -65,6 +69,95 @@ import java.util.concurrent.TimeUnit;
  * }
  * </pre>
  *
+ * <p>
+ * You can move rendering and logging off the calling thread, see {@link LoggableDispatcher} for its configuration:
+ *
+ * <pre>
+ * &#064;Loggable(async = true)
+ * void save(String resource) throws IOException {
+ * 	// do something, frequently
+ * }
+ * </pre>
+ *
+ * <p>
+ * You can log only a part of the calls of a hot method, by sampling or by rate:
+ *
+ * <pre>
+ * &#064;Loggable(sampling = 0.01, rate = 100)
+ * User find(long id) {
+ * 	// called thousands of times per second
+ * }
+ * </pre>
+ *
+ * <p>
+ * The limit can follow the observed latency of the method instead of being fixed:
+ *
+ * <pre>
+ * &#064;Loggable(adaptive = true, percentile = 0.99, factor = 3)
+ * void save(String resource) throws IOException {
+ * 	// do something, sometimes unusually slow
+ * }
+ * </pre>
+ *
+ * <p>
+ * The parts of a log line can be attached to the event as fields, so that JSON encoders write them as such instead of
+ * parsing the message, see {@link LoggableEvent}:
+ *
+ * <pre>
+ * &#064;Loggable(structure = Loggable.Structure.MARKER)
+ * void save(String resource) throws IOException {
+ * 	// do something
+ * }
+ * </pre>
+ *
+ * <p>
+ * You can tell whether a slow method was burning CPU, allocating or waiting, by measuring what the calling thread used
+ * during the call; it is logged after the duration, as in {@code in 1.20s [cpu 15.00ms, 2.50MB allocated]}:
+ *
+ * <pre>
+ * &#064;Loggable(cpu = true, allocated = true)
+ * Report build(Request request) {
+ * 	// do something, sometimes slow
+ * }
+ * </pre>
+ *
+ * <p>
+ * A request going through annotated services, DAOs and helpers can be logged as a single line, with the time of every
+ * nested call and the time spent outside of them, repeated calls being collapsed:
+ *
+ * <pre>
+ * &#064;Loggable(tree = true)
+ * Response handle(Request request) {
+ * 	// call other loggable methods
+ * }
+ * </pre>
+ *
+ * <p>
+ * A method failing thousands of times per second during an outage can log its exception once, then a periodic count of
+ * the identical ones:
+ *
+ * <pre>
+ * &#064;Loggable(deduplicate = true)
+ * User find(long id) {
+ * 	// calls a remote service, which may be down
+ * }
+ * </pre>
+ *
+ * <p>
+ * On a very hot method, every call can be counted instead of logged, a single line summing them up every so many
+ * seconds:
+ *
+ * <pre>
+ * &#064;Loggable(summary = 10)
+ * Price quote(String symbol) {
+ * 	// called thousands of times per second
+ * }
+ * </pre>
+ *
+ * <p>
+ * The level, limit, trim and sampling of a method, or whether it is logged at all, can be changed at runtime, without
+ * redeploying, see {@link LoggableOverrides}.
+ *
  *
  * @author Yegor Bugayenko (yegor@tpc2.com)
  * @version $Id$
@@ -78,6 +171,21 @@ public @interface Loggable {
 		TRACE, DEBUG, INFO, WARN, ERROR
 	}
 
+	public enum Structure {
+		/**
+		 * The message only.
+		 */
+		NONE,
+		/**
+		 * The fields in a {@link LoggableEvent} marker.
+		 */
+		MARKER,
+		/**
+		 * The fields in the MDC, while the event is logged.
+		 */
+		MDC
+	}
+
 	/**
 	 * Level of logging.
 	 */
@@ -95,7 +203,10 @@ public @interface Loggable {
 
 	/**
 	 * Shall we trim long texts in order to make log lines more readable?
-	 * -1 or Integer.MAX_VALUE disable trimming
+	 * -1 or Integer.MAX_VALUE disable trimming.
+	 * Arrays, collections and maps are iterated only until the limit is reached,
+	 * the number of elements left out being logged instead, and
+	 * {@link BoundedRenderable} objects stop rendering once it is reached.
 	 */
 	int trim() default 100;
 
@@ -134,4 +245,100 @@ public @interface Loggable {
 	 */
 	String name() default "";
 
+	/**
+	 * Render and log on a background thread instead of the calling one.
+	 */
+	boolean async() default false;
+
+	/**
+	 * Record every duration into a latency histogram exposed over JMX, see {@link LoggableStats}. It does not depend on
+	 * the level of logging, so a disabled method still gets its latency distribution.
+	 */
+	boolean histogram() default false;
+
+	/**
+	 * Ratio of calls logged, for example 0.01 to log one call in a hundred. Calls over the limit and calls that throw
+	 * are always logged. Calls not logged are counted and reported periodically.
+	 */
+	double sampling() default 1;
+
+	/**
+	 * Maximum number of calls logged per second, -1 for no limit. Calls over the limit and calls that throw are always
+	 * logged. Calls not logged are counted and reported periodically.
+	 */
+	int rate() default -1;
+
+	/**
+	 * Also flag a call as too slow when it takes longer than {@link #factor()} times the {@link #percentile()} of the
+	 * recent calls of the method, see {@link LoggableThreshold}. The static {@link #limit()} still applies.
+	 */
+	boolean adaptive() default false;
+
+	/**
+	 * Percentile of the recent calls used by the adaptive limit.
+	 */
+	double percentile() default 0.99;
+
+	/**
+	 * Factor applied to the percentile by the adaptive limit.
+	 */
+	double factor() default 2;
+
+	/**
+	 * Number of first calls never flagged by the adaptive limit.
+	 */
+	int warmup() default 1000;
+
+	/**
+	 * Seconds after the JVM start during which no call is flagged by the adaptive limit.
+	 */
+	int warmupSeconds() default 60;
+
+	/**
+	 * How the fields of the event (method, duration, outcome...) are attached to it, besides the message.
+	 */
+	Structure structure() default Structure.NONE;
+
+	/**
+	 * Measure the CPU time of the calling thread during the call, and log it after the duration. It costs a call to
+	 * the {@code ThreadMXBean} when the method starts and another one when it returns, see {@link LoggableUsage}.
+	 */
+	boolean cpu() default false;
+
+	/**
+	 * Measure the bytes allocated by the calling thread during the call, and log them after the duration. It costs a
+	 * call to the {@code ThreadMXBean} when the method starts and another one when it returns.
+	 */
+	boolean allocated() default false;
+
+	/**
+	 * Aggregate the advised calls made during this one into a call tree, logged with its line instead of one line each,
+	 * see {@link LoggableTree}. It applies when this call is the outermost advised call of its thread.
+	 */
+	boolean tree() default false;
+
+	/**
+	 * Log an exception in full only the first time it is thrown in a window, identical ones (same class, thrown from
+	 * the same place) being counted and reported periodically, see {@link LoggableDuplicates}.
+	 */
+	boolean deduplicate() default false;
+
+	/**
+	 * Seconds between two summary lines of the calls (count, errors, slow calls, durations), logged instead of one line
+	 * per call, see {@link LoggableSummary}; 0 to log every call.
+	 */
+	int summary() default 0;
+
+	/**
+	 * Count the calls of the method in flight, exposed over JMX with their peak, see {@link LoggableConcurrency}, and
+	 * written in the lines of the calls too slow.
+	 */
+	boolean concurrency() default false;
+
+	/**
+	 * Log the calls still running past the {@link #limit()}, with the stack of their thread, without waiting for them
+	 * to end, see {@link LoggableWatchdog}.
+	 */
+	boolean watchdog() default false;
+
 }
@@ -0,0 +1,179 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.aspectj.weaver.loadtime.ClassPreProcessorAgentAdapter;
+
+/**
+ * Java agent weaving {@link LoggableAspect} at load time, into the classes that use {@link Loggable} only.
+ *
+ * <pre>
+ * java -javaagent:guyom-loggable-aspect.jar -Dloggable.weave.include=com.example -cp aspectjweaver.jar:... Main
+ * </pre>
+ *
+ * <p>
+ * The AspectJ agent parses every class loaded before it can tell that no advice applies. This one hands a class over
+ * to AspectJ only when:
+ * <ul>
+ * <li>its package is in {@code loggable.weave.include} (system property, package prefixes separated by commas,
+ * everything by default) and not in {@code loggable.weave.exclude} (the JDK, AspectJ, SLF4J and Logback are always
+ * excluded)</li>
+ * <li>its constant pool holds the descriptor of {@link Loggable}, which a class annotated, or with a method annotated,
+ * always does, since the annotation is not inherited</li>
+ * <li>it was not already woven with {@link LoggableAspect} at compile time, which leaves the descriptor of the aspect in
+ * its constant pool; a class woven with other aspects only is still handed over</li>
+ * </ul>
+ *
+ * <p>
+ * These checks are made on the name and the bytes of the class, without parsing it. AspectJ then weaves the classes
+ * left as {@code META-INF/aop-loggable.xml} of this library declares, together with the {@code aop.xml} files of the
+ * application, whose {@code include} and {@code exclude} filters also apply. That file is not found by the AspectJ
+ * agent on its own: the agent adds it to the {@code org.aspectj.weaver.loadtime.configuration} system property, so
+ * that the aspect is woven at load time only by those who ask for it.
+ *
+ * @version $Id$
+ */
+public final class LoggableAgent implements ClassFileTransformer {
+
+	private static final byte[] DESCRIPTOR = "Lcom/gb/guyom/utils/log/Loggable;".getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] WOVEN = "Lcom/gb/guyom/utils/log/LoggableAspect;".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * System property listing the configuration files of the AspectJ weaver, and its default value.
+	 */
+	static final String CONFIGURATION = "org.aspectj.weaver.loadtime.configuration";
+
+	private static final String DEFAULT_CONFIGURATION = "META-INF/aop.xml;META-INF/aop-ajc.xml;org/aspectj/aop.xml";
+
+	/**
+	 * Configuration file of the load-time weaving of {@link LoggableAspect}.
+	 */
+	static final String AOP_XML = "META-INF/aop-loggable.xml";
+
+	private static final String[] EXCLUDED = { "java/", "javax/", "jdk/", "sun/", "com/sun/", "org/aspectj/",
+			"org/slf4j/", "ch/qos/logback/" };
+
+	private final ClassFileTransformer weaver;
+	private final String[] includes;
+	private final String[] excludes;
+
+	/**
+	 * Filter the classes handed over to a weaver.
+	 *
+	 * @param weaver
+	 *            The weaver
+	 * @param includes
+	 *            Packages woven, separated by commas, null for every package
+	 * @param excludes
+	 *            Packages not woven, separated by commas, null for none
+	 */
+	LoggableAgent(final ClassFileTransformer weaver, final String includes, final String excludes) {
+		this.weaver = weaver;
+		this.includes = packages(includes);
+		final String[] excluded = packages(excludes);
+		this.excludes = new String[EXCLUDED.length + excluded.length];
+		System.arraycopy(EXCLUDED, 0, this.excludes, 0, EXCLUDED.length);
+		System.arraycopy(excluded, 0, this.excludes, EXCLUDED.length, excluded.length);
+	}
+
+	/**
+	 * Install the agent.
+	 *
+	 * @param options
+	 *            Options of the agent, ignored
+	 * @param instrumentation
+	 *            The instrumentation
+	 */
+	public static void premain(final String options, final Instrumentation instrumentation) {
+		System.setProperty(CONFIGURATION, configuration(System.getProperty(CONFIGURATION)));
+		instrumentation.addTransformer(new LoggableAgent(new ClassPreProcessorAgentAdapter(), System
+				.getProperty("loggable.weave.include"), System.getProperty("loggable.weave.exclude")));
+	}
+
+	/**
+	 * @param configuration
+	 *            Configuration files of the AspectJ weaver, separated by semicolons, null for its default ones
+	 * @return The same, with {@link #AOP_XML}
+	 */
+	static String configuration(final String configuration) {
+		final String files = configuration == null ? DEFAULT_CONFIGURATION : configuration;
+		return Arrays.asList(files.split(";")).contains(AOP_XML) ? files : AOP_XML + ';' + files;
+	}
+
+	@Override
+	public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+			final ProtectionDomain protectionDomain, final byte[] bytes) throws IllegalClassFormatException {
+		byte[] woven = null;
+		if (this.accepts(className, bytes)) {
+			woven = weaver.transform(loader, className, classBeingRedefined, protectionDomain, bytes);
+		}
+		return woven;
+	}
+
+	/**
+	 * Shall a class be handed over to the weaver?
+	 *
+	 * @param className
+	 *            Internal name of the class, null if unknown
+	 * @param bytes
+	 *            The class file
+	 * @return TRUE if it may be advised
+	 */
+	boolean accepts(final String className, final byte[] bytes) {
+		return className != null && matches(includes, className, includes.length == 0)
+				&& !matches(excludes, className, false) && contains(bytes, DESCRIPTOR) && !contains(bytes, WOVEN);
+	}
+
+	private static boolean matches(final String[] packages, final String className, final boolean empty) {
+		boolean matches = empty;
+		for (int pos = 0; !matches && pos < packages.length; ++pos) {
+			matches = className.startsWith(packages[pos]);
+		}
+		return matches;
+	}
+
+	/**
+	 * @return The prefixes of the internal names of the classes in the packages, {@code com.example} and
+	 *         {@code com.example..*} both covering the sub-packages
+	 */
+	private static String[] packages(final String patterns) {
+		final List<String> packages = new ArrayList<String>();
+		if (patterns != null) {
+			for (final String pattern : patterns.split(",")) {
+				String name = pattern.trim();
+				if (name.endsWith("..*")) {
+					name = name.substring(0, name.length() - 3);
+				}
+				if (!name.isEmpty()) {
+					packages.add(name.replace('.', '/') + '/');
+				}
+			}
+		}
+		return packages.toArray(new String[packages.size()]);
+	}
+
+	/**
+	 * @return TRUE if the bytes hold the sequence
+	 */
+	private static boolean contains(final byte[] bytes, final byte[] sequence) {
+		final int last = bytes.length - sequence.length;
+		boolean found = false;
+		for (int start = 0; !found && start <= last; ++start) {
+			int pos = 0;
+			while (pos < sequence.length && bytes[start + pos] == sequence[pos]) {
+				++pos;
+			}
+			found = pos == sequence.length;
+		}
+		return found;
+	}
+
+}
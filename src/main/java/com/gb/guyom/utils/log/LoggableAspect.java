@@ -1,10 +1,19 @@
 package com.gb.guyom.utils.log;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
+import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.AfterThrowing;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.aspectj.lang.annotation.Pointcut;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +25,18 @@ import org.slf4j.LoggerFactory;
  * It is an AspectJ aspect and you are not supposed to use it directly. It is instantiated by AspectJ runtime framework
  * when your code is annotated with {@link Loggable} annotation.
  *
+ * <p>
+ * By default, methods are advised around, through a {@code ProceedingJoinPoint}: AspectJ allocates a closure, a joint
+ * point and an array of arguments on every call. With the {@code loggable.advice=inline} system property, they are
+ * advised before and after instead, from the static part of the joint point only, and the arguments are copied only
+ * for the calls that are logged. Calls that are not logged but turn out too slow, or throw, are then logged with
+ * their arguments replaced with dots. Constructors are not advised inline. As long as the around advice is woven next
+to it, AspectJ still creates the joint point itself, but not the closure nor the array of arguments.
+ *
+ * <p>
+ * The plan of a method is built on its first call, unless it was preloaded by {@link LoggableIndex}, once even if
+ * several threads make that call together or race the preload: both go through the same cache, keyed by method.
+ *
  * @version $Id$
  */
 @Aspect
@@ -24,16 +45,135 @@ public class LoggableAspect {
 	@SuppressWarnings("unused")
 	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableAspect.class);
 
+	private static final boolean INLINE = "inline".equals(System.getProperty("loggable.advice"));
+
+	/**
+	 * Set once an aspect has preloaded, the one AspectJ instantiates first.
+	 */
+	private static final AtomicBoolean PRELOADED = new AtomicBoolean();
+
 	private LoggableAspectHelper loggableAspectHelper;
 
+	/**
+	 * Plans of the methods advised through their class, {@link LoggableCallSite#NONE} for those that carry their own
+	 * annotation.
+	 */
+	private final ConcurrentMap<Method, LoggableCallSite> classPlans = new ConcurrentHashMap<Method, LoggableCallSite>();
+
+	/**
+	 * Plans of the methods advised through their own annotation, {@link LoggableCallSite#NONE} for those that carry
+	 * none.
+	 */
+	private final ConcurrentMap<Method, LoggableCallSite> methodPlans = new ConcurrentHashMap<Method, LoggableCallSite>();
+
+	/**
+	 * Call sites advised by {@link #wrapClass(ProceedingJoinPoint)}, looked up in {@link #classPlans}.
+	 */
+	private final ConcurrentMap<JoinPoint.StaticPart, LoggableCallSite> classCallSites = new ConcurrentHashMap<JoinPoint.StaticPart, LoggableCallSite>();
+
+	/**
+	 * Call sites advised by {@link #wrapMethod(ProceedingJoinPoint)}, looked up in {@link #methodPlans}.
+	 */
+	private final ConcurrentMap<JoinPoint.StaticPart, LoggableCallSite> methodCallSites = new ConcurrentHashMap<JoinPoint.StaticPart, LoggableCallSite>();
+
+	/**
+	 * Call sites advised inline, through their own annotation or their class.
+	 */
+	private final ConcurrentMap<JoinPoint.StaticPart, LoggableCallSite> inlineCallSites = new ConcurrentHashMap<JoinPoint.StaticPart, LoggableCallSite>();
+
+	private final Function<Method, LoggableCallSite> classPlanner = new Function<Method, LoggableCallSite>() {
+		@Override
+		public LoggableCallSite apply(final Method method) {
+			final LoggableCallSite callSite;
+			if (method.isAnnotationPresent(Loggable.class)) {
+				callSite = LoggableCallSite.NONE;
+			}
+			else {
+				callSite = loggableAspectHelper.callSite(method, method.getDeclaringClass().getAnnotation(
+						Loggable.class));
+			}
+			return callSite;
+		}
+	};
+
+	private final Function<Method, LoggableCallSite> methodPlanner = new Function<Method, LoggableCallSite>() {
+		@Override
+		public LoggableCallSite apply(final Method method) {
+			final Loggable annotation = method.getAnnotation(Loggable.class);
+			return annotation == null ? LoggableCallSite.NONE : loggableAspectHelper.callSite(method, annotation);
+		}
+	};
+
+	private final Function<JoinPoint.StaticPart, LoggableCallSite> inlinePlanner = new Function<JoinPoint.StaticPart, LoggableCallSite>() {
+		@Override
+		public LoggableCallSite apply(final JoinPoint.StaticPart staticPart) {
+			final LoggableCallSite callSite = methodCallSite(staticPart);
+			return callSite == LoggableCallSite.NONE ? classCallSite(staticPart) : callSite;
+		}
+	};
+
 	public LoggableAspect() {
 		loggableAspectHelper = new LoggableAspectHelper();
+		if (PRELOADED.compareAndSet(false, true)) {
+			LoggableIndex.preloadIfRequired(this);
+		}
 	}
 
 	void setLoggableAspectHelper(LoggableAspectHelper loggableAspectHelper) {
 		this.loggableAspectHelper = loggableAspectHelper;
 	}
 
+	/**
+	 * Public methods of a {@link Loggable} class, but the methods of {@code Object} and the aspect itself.
+	 */
+	@Pointcut("execution(public * (@com.gb.guyom.utils.log.Loggable *).*(..))" //
+			+ " && !execution(String *.toString())" //
+			+ " && !execution(int *.hashCode())" //
+			+ " && !execution(boolean *.canEqual(Object))" //
+			+ " && !execution(boolean *.equals(Object))" //
+			+ " && !cflow(call(com.gb.guyom.utils.log.LoggableAspect.new()))")
+	void loggableClass() {
+		// pointcut
+	}
+
+	/**
+	 * {@link Loggable} methods and constructors.
+	 */
+	@Pointcut("(execution(* *(..)) || initialization(*.new(..))) && @annotation(com.gb.guyom.utils.log.Loggable)")
+	void loggableMethod() {
+		// pointcut
+	}
+
+	/**
+	 * Are methods advised inline?
+	 *
+	 * @return TRUE with the {@code loggable.advice=inline} system property
+	 */
+	@Pointcut("if()")
+	public static boolean inline() {
+		return INLINE;
+	}
+
+	/**
+	 * Are methods advised around? It is not {@code !inline()}, which AspectJ does not weave.
+	 *
+	 * @return TRUE without the {@code loggable.advice=inline} system property
+	 */
+	@Pointcut("if()")
+	public static boolean wrapped() {
+		return !INLINE;
+	}
+
+	/**
+	 * Does the call in progress need its arguments?
+	 *
+	 * @return TRUE if it is logged
+	 */
+	@Pointcut("if()")
+	public static boolean capturing() {
+		return LoggableFrames.get().isCapturing();
+	}
+
 	/**
 	 * Log methods in a class.
 	 *
@@ -43,20 +183,15 @@ public class LoggableAspect {
 	 * @throws Throwable
 	 *             If something goes wrong inside
 	 */
-	@Around("execution(public * (@com.gb.guyom.utils.log.Loggable *).*(..))" //
-			+ " && !execution(String *.toString())" //
-			+ " && !execution(int *.hashCode())" //
-			+ " && !execution(boolean *.canEqual(Object))" //
-			+ " && !execution(boolean *.equals(Object))" //
-			+ " && !cflow(call(com.gb.guyom.utils.log.LoggableAspect.new()))")
+	@Around("loggableClass() && wrapped()")
 	public Object wrapClass(final ProceedingJoinPoint point) throws Throwable {
-		final Method method = MethodSignature.class.cast(point.getSignature()).getMethod();
+		final LoggableCallSite callSite = this.classCallSite(point.getStaticPart());
 		Object output;
-		if (method.isAnnotationPresent(Loggable.class)) {
+		if (callSite == LoggableCallSite.NONE) {
 			output = point.proceed();
 		}
 		else {
-			output = loggableAspectHelper.wrap(point, method, method.getDeclaringClass().getAnnotation(Loggable.class));
+			output = loggableAspectHelper.wrap(point, callSite);
 		}
 		return output;
 	}
@@ -70,10 +205,148 @@ public class LoggableAspect {
 	 * @throws Throwable
 	 *             If something goes wrong inside
 	 */
-	@Around("(execution(* *(..)) || initialization(*.new(..)))" + " && @annotation(com.gb.guyom.utils.log.Loggable)")
+	@Around("loggableMethod() && wrapped()")
 	public Object wrapMethod(final ProceedingJoinPoint point) throws Throwable {
-		final Method method = MethodSignature.class.cast(point.getSignature()).getMethod();
-		return loggableAspectHelper.wrap(point, method, method.getAnnotation(Loggable.class));
+		return loggableAspectHelper.wrap(point, this.methodCallSite(point.getStaticPart()));
+	}
+
+	/**
+	 * Enter a method advised inline.
+	 *
+	 * @param staticPart
+	 *            Static part of the joint point
+	 */
+	@Before("(loggableClass() || (loggableMethod() && execution(* *(..)))) && inline()")
+	public void enter(final JoinPoint.StaticPart staticPart) {
+		LoggableCallSite callSite = inlineCallSites.get(staticPart);
+		if (callSite == null) {
+			callSite = inlineCallSites.computeIfAbsent(staticPart, inlinePlanner);
+		}
+		if (callSite.isOn()) {
+			final boolean logged = !LoggableTree.isNested() && callSite.admit();
+			if (callSite.getConcurrency() != null) {
+				callSite.getConcurrency().enter();
+			}
+			final LoggableUsage usage = callSite.startUsage();
+			LoggableTree.enter(callSite);
+			final long start = System.nanoTime();
+			LoggableFrames.get().push(callSite, start, usage, logged, callSite.isWatchdog() ? LoggableWatchdog.get()
+					.watch(callSite, start) : null);
+		}
+		else {
+			LoggableFrames.get().push(null, 0L, null, false, null);
+		}
+	}
+
+	/**
+	 * Capture the arguments of a logged method advised inline.
+	 *
+	 * @param point
+	 *            Joint point
+	 */
+	@Before("(loggableClass() || (loggableMethod() && execution(* *(..)))) && inline() && capturing()")
+	public void capture(final JoinPoint point) {
+		final LoggableFrames frames = LoggableFrames.get();
+		frames.capture(point.getThis(), point.getArgs());
+		loggableAspectHelper.entered(frames.getCallSite(), frames.getThis(), frames.getArgs());
+	}
+
+	/**
+	 * Leave a method advised inline.
+	 *
+	 * @param result
+	 *            The result of the call
+	 */
+	@AfterReturning(pointcut = "(loggableClass() || (loggableMethod() && execution(* *(..)))) && inline()", returning = "result")
+	public void exit(final Object result) {
+		final LoggableFrames frames = LoggableFrames.get();
+		final LoggableCallSite callSite = frames.getCallSite();
+		if (callSite != null) {
+			if (frames.getWatch() != null) {
+				frames.getWatch().cancel();
+			}
+			loggableAspectHelper.exited(callSite, null, frames.getThis(), frames.getArgs(), result, frames
+					.getStart(), frames.getUsage(), frames.isLogged());
+			if (callSite.getConcurrency() != null) {
+				callSite.getConcurrency().exit();
+			}
+		}
+		frames.pop();
+	}
+
+	/**
+	 * Leave a method advised inline by an exception.
+	 *
+	 * @param ex
+	 *            The exception
+	 */
+	@AfterThrowing(pointcut = "(loggableClass() || (loggableMethod() && execution(* *(..)))) && inline()", throwing = "ex")
+	public void fail(final Throwable ex) {
+		final LoggableFrames frames = LoggableFrames.get();
+		final LoggableCallSite callSite = frames.getCallSite();
+		if (callSite != null) {
+			if (frames.getWatch() != null) {
+				frames.getWatch().cancel();
+			}
+			loggableAspectHelper.failed(callSite, null, frames.getThis(), frames.getArgs(), ex, frames.getStart(),
+					frames.getUsage());
+			if (callSite.getConcurrency() != null) {
+				callSite.getConcurrency().exit();
+			}
+		}
+		frames.pop();
+	}
+
+	/**
+	 * The plan of a method advised through its class, built once per aspect.
+	 *
+	 * @param method
+	 *            A public method of a {@link Loggable} class
+	 * @return The plan, {@link LoggableCallSite#NONE} if the method carries its own annotation
+	 */
+	LoggableCallSite classCallSite(final Method method) {
+		LoggableCallSite callSite = classPlans.get(method);
+		if (callSite == null) {
+			callSite = classPlans.computeIfAbsent(method, classPlanner);
+		}
+		return callSite;
+	}
+
+	/**
+	 * The plan of a method advised through its own annotation, built once per aspect.
+	 *
+	 * @param method
+	 *            A method
+	 * @return The plan, {@link LoggableCallSite#NONE} if the method has no annotation
+	 */
+	LoggableCallSite methodCallSite(final Method method) {
+		LoggableCallSite callSite = methodPlans.get(method);
+		if (callSite == null) {
+			callSite = methodPlans.computeIfAbsent(method, methodPlanner);
+		}
+		return callSite;
+	}
+
+	private LoggableCallSite classCallSite(final JoinPoint.StaticPart staticPart) {
+		LoggableCallSite callSite = classCallSites.get(staticPart);
+		if (callSite == null) {
+			callSite = classCallSite(method(staticPart));
+			classCallSites.put(staticPart, callSite);
+		}
+		return callSite;
+	}
+
+	private LoggableCallSite methodCallSite(final JoinPoint.StaticPart staticPart) {
+		LoggableCallSite callSite = methodCallSites.get(staticPart);
+		if (callSite == null) {
+			callSite = methodCallSite(method(staticPart));
+			methodCallSites.put(staticPart, callSite);
+		}
+		return callSite;
+	}
+
+	private static Method method(final JoinPoint.StaticPart staticPart) {
+		return MethodSignature.class.cast(staticPart.getSignature()).getMethod();
 	}
 
 }
@@ -1,7 +1,11 @@
 package com.gb.guyom.utils.log;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
 
+import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +15,15 @@ public class LoggableAspectHelper {
 	@SuppressWarnings("unused")
 	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableAspectHelper.class);
 
+	private static final String ENTERED = "{}: entered";
+	private static final String THROWN = "{}: thrown {} out of {} in {}";
+	private static final String RETURNED = "{}: {} in {}";
+	private static final String RETURNED_SLOW = "{}: {} in {} (too slow!)";
+	private static final String RETURNED_VOID = "{}: in {}";
+	private static final String RETURNED_VOID_SLOW = "{}: in {} (too slow!)";
+	private static final String RETURNED_SLOW_CONCURRENT = "{}: {} in {} (too slow, {} concurrent)";
+	private static final String RETURNED_VOID_SLOW_CONCURRENT = "{}: in {} (too slow, {} concurrent)";
+
 	private LoggableHelper loggableHelper;
 
 	public LoggableAspectHelper() {
@@ -22,131 +35,432 @@ public class LoggableAspectHelper {
 	}
 
 	/**
-	 * Catch exception and re-call the method.
+	 * Build and start the plan of a call site. It is registered for good, so it must be called once per call site,
+	 * by the cache that keeps it.
 	 * 
-	 * @param point
-	 *            Joint point
 	 * @param method
 	 *            The method
 	 * @param annotation
 	 *            The annotation
+	 * @return The plan
+	 */
+	public LoggableCallSite callSite(final Method method, final Loggable annotation) {
+		return new LoggableCallSite(loggableHelper, method, annotation, getSourceForLogger(method, annotation.name()))
+				.start();
+	}
+
+	/**
+	 * Catch exception and re-call the method.
+	 * 
+	 * @param point
+	 *            Joint point
+	 * @param callSite
+	 *            The plan of the call site
+	 * @return The result of call
+	 * @throws Throwable
+	 *             If something goes wrong inside
+	 */
+	public Object wrap(final ProceedingJoinPoint point, final LoggableCallSite callSite) throws Throwable {
+		final Object result;
+		if (callSite.isOn()) {
+			result = this.proceed(point, callSite);
+		}
+		else {
+			result = point.proceed();
+		}
+		return result;
+	}
+
+	/**
+	 * Call the method, timing and logging it, and counting it in flight until it is logged. The arguments are copied
+	 * out of the joint point only if they are rendered.
+	 * 
+	 * @param point
+	 *            Joint point
+	 * @param callSite
+	 *            The plan of the call site
 	 * @return The result of call
 	 * @throws Throwable
 	 *             If something goes wrong inside
 	 */
-	public Object wrap(final ProceedingJoinPoint point, final Method method, final Loggable annotation)
-			throws Throwable {
+	private Object proceed(final ProceedingJoinPoint point, final LoggableCallSite callSite) throws Throwable {
 
-		final Object source = getSourceForLogger(method, annotation.name());
-		Loggable.Level level = annotation.value();
+		final boolean logged = !LoggableTree.isNested() && callSite.admit();
+		final Object[] args = logged ? point.getArgs() : null;
 
-		if (annotation.prepend()) {
-			loggableHelper.log(level, source, new StringBuilder(loggableHelper.toText(//
-					point.getThis(), //
-					method.getName(), //
-					point.getArgs(), //
-					annotation.trim(), //
-					annotation.skipArgs(), //
-					annotation.logThis())).append(": entered").toString());
+		if (logged) {
+			this.entered(callSite, point.getThis(), args);
 		}
 
-		StringBuilder msg;
 		final Object result;
-		final long nano;
-		final long start = System.nanoTime();
+		final LoggableConcurrency concurrency = callSite.getConcurrency();
+		if (concurrency != null) {
+			concurrency.enter();
+		}
 		try {
-			result = point.proceed();
+			final LoggableUsage usage = callSite.startUsage();
+			LoggableTree.enter(callSite);
+			final long start = System.nanoTime();
+			final LoggableWatchdog.Watch watch = callSite.isWatchdog() ? LoggableWatchdog.get().watch(callSite,
+					start) : null;
+			try {
+				result = point.proceed();
+			}
+			catch (final Throwable ex) {
+				if (watch != null) {
+					watch.cancel();
+				}
+				this.failed(callSite, point, point.getThis(), args, ex, start, usage);
+				throw ex;
+			}
+
+			if (watch != null) {
+				watch.cancel();
+			}
+			this.exited(callSite, point, point.getThis(), args, result, start, usage, logged);
 		}
-		catch (final Throwable ex) {
-			nano = System.nanoTime() - start;
-			if (!this.contains(annotation.ignore(), ex)) {
-				final StackTraceElement trace = ex.getStackTrace()[0];
-
-				msg = new StringBuilder();
-				msg.append(String.format("%s: thrown %s out of %s#%s[%d] in ", //
-						loggableHelper.toText(//
-								point.getThis(), //
-								method.getName(), //
-								point.getArgs(), //
-								annotation.trim(), //
-								annotation.skipArgs(), //
-								annotation.logThis()), //
-						loggableHelper.toText(ex), //
-						trace.getClassName(), //
-						trace.getMethodName(), //
-						trace.getLineNumber()));
-				msg.append(loggableHelper.toText(nano, annotation.precision()));
-				loggableHelper.log(Loggable.Level.ERROR, source, msg.toString());
+		finally {
+			if (concurrency != null) {
+				concurrency.exit();
 			}
-			throw ex;
 		}
+		return result;
+	}
+
+	/**
+	 * Log the entry in a method, if required.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method
+	 */
+	void entered(final LoggableCallSite callSite, final Object thiz, final Object[] args) {
+		if (callSite.isPrepend()) {
+			if (!callSite.isAsync()
+					|| !LoggableDispatcher.get().dispatch(LoggableDispatcher.Kind.ENTERED, this, callSite, thiz, args,
+							null, null, 0L, null, null, false, 0L)) {
+				this.logEntered(callSite, thiz, args);
+			}
+		}
+	}
+
+	/**
+	 * Record and log the return of a method, or of the {@code CompletionStage} it returned once it completes. A call
+	 * nested in a call tree is not logged unless slow, the tree being logged with the outermost call, but it is
+	 * recorded and summarized as any other.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param point
+	 *            Joint point to get the arguments from if needed, null if not available
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method, null if not captured yet
+	 * @param result
+	 *            The result of the call
+	 * @param start
+	 *            When the call started
+	 * @param usage
+	 *            The counters of the thread when the call started, null if not measured
+	 * @param logged
+	 *            Was the call admitted for logging?
+	 */
+	void exited(final LoggableCallSite callSite, final JoinPoint point, final Object thiz, final Object[] args,
+			final Object result, final long start, final LoggableUsage usage, final boolean logged) {
+		final long nano = System.nanoTime() - start;
+		final LoggableUsage used = usage == null ? null : usage.since();
+		final LoggableTrace trace = LoggableTrace.get();
+		if (trace != null) {
+			trace.record(callSite.getTraceId(), start, nano, null);
+		}
+		final LoggableTree tree = LoggableTree.of(callSite);
+		final LoggableTree.Node root = tree == null ? null : tree.exit(nano);
+		final boolean nested = tree != null && root == null;
+		if (callSite.isReturnsStage() && result != null) {
+			((CompletionStage<?>) result).whenComplete(new Completion(this, callSite, thiz, args(point, args), start,
+					used, root, logged, nested));
+		}
+		else {
+			this.returned(callSite, point, thiz, args, result, nano, used, root, logged, nested);
+		}
+	}
 
-		nano = System.nanoTime() - start;
-		final boolean over = nano > annotation.unit().toNanos(annotation.limit());
-		if (loggableHelper.enabled(level, source) || over) {
-			msg = new StringBuilder();
-			msg.append(
-					loggableHelper.toText(point.getThis(), method.getName(), point.getArgs(), annotation.trim(),
-							annotation.skipArgs(), annotation.logThis())).append(':');
+	/**
+	 * Record and log an exception thrown out of a method.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param point
+	 *            Joint point to get the arguments from if needed, null if not available
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method, null if not captured yet
+	 * @param ex
+	 *            The exception
+	 * @param start
+	 *            When the call started
+	 * @param usage
+	 *            The counters of the thread when the call started, null if not measured
+	 */
+	void failed(final LoggableCallSite callSite, final JoinPoint point, final Object thiz, final Object[] args,
+			final Throwable ex, final long start, final LoggableUsage usage) {
+		final long nano = System.nanoTime() - start;
+		final LoggableTrace trace = LoggableTrace.get();
+		if (trace != null) {
+			trace.record(callSite.getTraceId(), start, nano, ex);
+		}
+		final LoggableTree tree = LoggableTree.of(callSite);
+		this.thrown(callSite, point, thiz, args, ex, nano, usage == null ? null : usage.since(), tree == null ? null
+				: tree.exit(nano));
+	}
 
-			if (!method.getReturnType().equals(Void.TYPE)) {
-				msg.append(' ').append(loggableHelper.toText(result, annotation.trim(), annotation.skipResult()));
+	/**
+	 * Record and log an exception thrown out of a method, unless an identical one was logged recently.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param point
+	 *            Joint point to get the arguments from if needed, null if not available
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method, null if not captured yet
+	 * @param ex
+	 *            The exception
+	 * @param nano
+	 *            Duration of the call
+	 * @param usage
+	 *            CPU time and bytes allocated by the call, null if not measured
+	 * @param tree
+	 *            The call tree of the call, null if none
+	 */
+	private void thrown(final LoggableCallSite callSite, final JoinPoint point, final Object thiz,
+			final Object[] args, final Throwable ex, final long nano, final LoggableUsage usage,
+			final LoggableTree.Node tree) {
+		if (callSite.getStats() != null) {
+			callSite.getStats().recordError(nano);
+		}
+		if (callSite.getSummary() != null) {
+			callSite.getSummary().recordError(nano);
+		}
+		else if (callSite.isEnabled(Loggable.Level.ERROR) && !callSite.isIgnored(ex)
+				&& (!callSite.isDeduplicate() || LoggableDuplicates.get().first(callSite, ex, nano))) {
+			final Object[] actual = args(point, args);
+			if (!callSite.isAsync()
+					|| !LoggableDispatcher.get().dispatch(LoggableDispatcher.Kind.THROWN, this, callSite, thiz,
+							actual, null, ex, nano, usage, tree, false, 0L)) {
+				this.logThrown(callSite, thiz, actual, ex, nano, usage, tree);
 			}
-			msg.append(" in ").append(loggableHelper.toText(nano, annotation.precision()));
-			if (over) {
-				level = Loggable.Level.WARN;
-				msg.append(" (too slow!)");
+		}
+	}
+
+	/**
+	 * Record and log the return of a method.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param point
+	 *            Joint point to get the arguments from if needed, null if not available
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method, null if not captured yet
+	 * @param result
+	 *            The result of the call
+	 * @param nano
+	 *            Duration of the call
+	 * @param usage
+	 *            CPU time and bytes allocated by the call, null if not measured
+	 * @param tree
+	 *            The call tree of the call, null if none
+	 * @param logged
+	 *            Was the call admitted for logging?
+	 * @param nested
+	 *            Was the call nested in a call tree, and so not submitted for admission?
+	 */
+	private void returned(final LoggableCallSite callSite, final JoinPoint point, final Object thiz,
+			final Object[] args, final Object result, final long nano, final LoggableUsage usage,
+			final LoggableTree.Node tree, final boolean logged, final boolean nested) {
+		if (callSite.getStats() != null) {
+			callSite.getStats().record(nano);
+		}
+		final boolean over = callSite.isSlow(nano);
+		if (callSite.getSummary() != null) {
+			callSite.getSummary().record(nano, over);
+		}
+		else if (over || logged) {
+			final Object[] actual = args(point, args);
+			final long concurrent = over && callSite.getConcurrency() != null ? callSite.getConcurrency()
+					.getInFlight() : 0L;
+			if (!callSite.isAsync()
+					|| !LoggableDispatcher.get().dispatch(LoggableDispatcher.Kind.RETURNED, this, callSite, thiz,
+							actual, result, null, nano, usage, tree, over, concurrent)) {
+				this.logReturned(callSite, thiz, actual, result, nano, usage, tree, over, concurrent);
 			}
-			loggableHelper.log(level, source, msg.toString());
 		}
+		else if (!nested && callSite.getLimiter() != null && callSite.isEnabled(callSite.getLevel())) {
+			callSite.getLimiter().suppress();
+		}
+	}
 
-		return result;
+	/**
+	 * The arguments of a call, copied out of the joint point if not captured yet.
+	 * 
+	 * @param point
+	 *            Joint point, null if not available
+	 * @param args
+	 *            Arguments already captured, null if none
+	 * @return The arguments, null if unknown
+	 */
+	private static Object[] args(final JoinPoint point, final Object[] args) {
+		return args == null && point != null ? point.getArgs() : args;
 	}
 
 	/**
-	 * Checks whether array of types contains given type.
+	 * Log the entry in a method.
 	 * 
-	 * @param array
-	 *            Array of them
-	 * @param exp
-	 *            The exception to find
-	 * @return TRUE if it's there
-	 */
-	private boolean contains(final Class<? extends Throwable>[] array, final Throwable exp) {
-		if (array == null)
-			return false;
-
-		boolean contains = false;
-		for (final Class<? extends Throwable> type : array) {
-			if (this.instanceOf(exp.getClass(), type)) {
-				contains = true;
-				break;
-			}
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method
+	 */
+	void logEntered(final LoggableCallSite callSite, final Object thiz, final Object[] args) {
+		final LoggableEvent event = callSite.getStructure() == Loggable.Structure.NONE ? null : new LoggableEvent(
+				callSite, LoggableEvent.Outcome.ENTERED, -1L, false, null, null, arguments(callSite, args), null);
+		this.log(callSite.getLevel(), callSite, event, ENTERED, new LoggableText.Invocation(loggableHelper, callSite,
+				thiz, args));
+	}
+
+	/**
+	 * Log an exception thrown out of a method.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method
+	 * @param ex
+	 *            The exception
+	 * @param nano
+	 *            Duration of the call
+	 * @param usage
+	 *            CPU time and bytes allocated by the call, null if not measured
+	 * @param tree
+	 *            The call tree of the call, null if none
+	 */
+	void logThrown(final LoggableCallSite callSite, final Object thiz, final Object[] args, final Throwable ex,
+			final long nano, final LoggableUsage usage, final LoggableTree.Node tree) {
+		final LoggableEvent event = callSite.getStructure() == Loggable.Structure.NONE ? null : new LoggableEvent(
+				callSite, LoggableEvent.Outcome.THROWN, nano, false, usage, ex, arguments(callSite, args), null);
+		this.log(Loggable.Level.ERROR, callSite, event, THROWN, //
+				new LoggableText.Invocation(loggableHelper, callSite, thiz, args), //
+				new LoggableText.Thrown(loggableHelper, ex), //
+				new LoggableText.ThrowSite(ex), //
+				new LoggableText.Duration(loggableHelper, nano, callSite.getPrecision(), usage, tree));
+	}
+
+	/**
+	 * Log the return of a method.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param thiz
+	 *            this
+	 * @param args
+	 *            Actual arguments of the method
+	 * @param result
+	 *            The result of the call
+	 * @param nano
+	 *            Duration of the call
+	 * @param usage
+	 *            CPU time and bytes allocated by the call, null if not measured
+	 * @param tree
+	 *            The call tree of the call, null if none
+	 * @param over
+	 *            Did the call take longer than the limit?
+	 * @param concurrent
+	 *            Number of calls of the method in flight when it returned, 0 if not counted
+	 */
+	void logReturned(final LoggableCallSite callSite, final Object thiz, final Object[] args, final Object result,
+			final long nano, final LoggableUsage usage, final LoggableTree.Node tree, final boolean over,
+			final long concurrent) {
+		final Loggable.Level level = over ? Loggable.Level.WARN : callSite.getLevel();
+		final LoggableText invocation = new LoggableText.Invocation(loggableHelper, callSite, thiz, args);
+		final LoggableText duration = new LoggableText.Duration(loggableHelper, nano, callSite.getPrecision(),
+				usage, tree);
+		final LoggableText text = callSite.isReturnsVoid() ? null : new LoggableText.Result(loggableHelper, callSite,
+				result);
+		final LoggableEvent event = callSite.getStructure() == Loggable.Structure.NONE ? null : new LoggableEvent(
+				callSite, LoggableEvent.Outcome.RETURNED, nano, over, usage, null, arguments(callSite, args),
+				callSite.isSkipResult() ? null : text);
+		if (text == null && concurrent > 0) {
+			this.log(level, callSite, event, RETURNED_VOID_SLOW_CONCURRENT, invocation, duration, concurrent);
+		}
+		else if (text == null) {
+			this.log(level, callSite, event, over ? RETURNED_VOID_SLOW : RETURNED_VOID, invocation, duration);
+		}
+		else if (concurrent > 0) {
+			this.log(level, callSite, event, RETURNED_SLOW_CONCURRENT, invocation, text, duration, concurrent);
+		}
+		else {
+			this.log(level, callSite, event, over ? RETURNED_SLOW : RETURNED, invocation, text, duration);
 		}
-		return contains;
 	}
 
 	/**
-	 * The type is an instance of another type?
+	 * Log one line, with its fields attached as the call site requires. The fields are put in the MDC only if the
+	 * level is enabled, since it takes them rendered.
 	 * 
-	 * @param child
-	 *            The child type
-	 * @param parent
-	 *            Parent type
-	 * @return TRUE if child is really a child of a parent
-	 */
-	private boolean instanceOf(final Class<?> child, final Class<?> parent) {
-		boolean instance = child.equals(parent)
-				|| (child.getSuperclass() != null && this.instanceOf(child.getSuperclass(), parent));
-		if (!instance) {
-			for (final Class<?> iface : child.getInterfaces()) {
-				instance = this.instanceOf(iface, parent);
-				if (instance) {
-					break;
+	 * @param level
+	 *            Level of logging
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param event
+	 *            The fields, null if not structured
+	 * @param format
+	 *            The format string
+	 * @param arguments
+	 *            The arguments of the format
+	 */
+	private void log(final Loggable.Level level, final LoggableCallSite callSite, final LoggableEvent event,
+			final String format, final Object... arguments) {
+		final Logger logger = callSite.getLogger();
+		if (callSite.getStructure() == Loggable.Structure.MDC) {
+			if (callSite.isEnabled(level)) {
+				final String[] previous = event.putMdc();
+				try {
+					loggableHelper.log(level, logger, format, arguments);
+				}
+				finally {
+					event.removeMdc(previous);
 				}
 			}
 		}
-		return instance;
+		else {
+			loggableHelper.log(level, logger, event, format, arguments);
+		}
+	}
+
+	/**
+	 * The arguments of a structured log line.
+	 * 
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param args
+	 *            Actual arguments of the method
+	 * @return The lazy text of the arguments, null if skipped or not captured
+	 */
+	private LoggableText arguments(final LoggableCallSite callSite, final Object[] args) {
+		return callSite.isSkipArgs() || args == null ? null : new LoggableText.Arguments(loggableHelper, callSite,
+				args);
 	}
 
 	/**
@@ -169,4 +483,51 @@ public class LoggableAspectHelper {
 		return source;
 	}
 
+	/**
+	 * Completion of the {@code CompletionStage} returned by a method, timed and logged like the return of a
+	 * synchronous method. It runs on the thread completing the stage, without blocking. The CPU time and bytes allocated
+	 * are those of the calling thread until the method returned.
+	 */
+	private static final class Completion implements BiConsumer<Object, Throwable> {
+
+		private final LoggableAspectHelper helper;
+		private final LoggableCallSite callSite;
+		private final Object thiz;
+		private final Object[] args;
+		private final long start;
+		private final LoggableUsage usage;
+		private final LoggableTree.Node tree;
+		private final boolean logged;
+		private final boolean nested;
+
+		Completion(final LoggableAspectHelper helper, final LoggableCallSite callSite, final Object thiz,
+				final Object[] args, final long start, final LoggableUsage usage, final LoggableTree.Node tree,
+				final boolean logged, final boolean nested) {
+			this.helper = helper;
+			this.callSite = callSite;
+			this.thiz = thiz;
+			this.args = args;
+			this.start = start;
+			this.usage = usage;
+			this.tree = tree;
+			this.logged = logged;
+			this.nested = nested;
+		}
+
+		@Override
+		public void accept(final Object result, final Throwable failure) {
+			final long nano = System.nanoTime() - start;
+			if (failure == null) {
+				helper.returned(callSite, null, thiz, args, result, nano, usage, tree, logged, nested);
+			}
+			else if (failure instanceof CompletionException && failure.getCause() != null) {
+				helper.thrown(callSite, null, thiz, args, failure.getCause(), nano, usage, tree);
+			}
+			else {
+				helper.thrown(callSite, null, thiz, args, failure, nano, usage, tree);
+			}
+		}
+
+	}
+
 }
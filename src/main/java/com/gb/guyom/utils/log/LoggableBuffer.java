@@ -0,0 +1,63 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * Reusable per-thread text buffer.
+ *
+ * <p>
+ * Rendering a log line may call {@code toString()} on arguments that are themselves advised, so the buffer can be
+ * asked for again while it is in use: a fresh builder is handed out in that case. Buffers grown beyond
+ * {@link #MAX_CAPACITY} are not kept, to avoid pinning memory after one huge line.
+ *
+ * @version $Id$
+ */
+final class LoggableBuffer {
+
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int MAX_CAPACITY = 16 * 1024;
+
+	private static final ThreadLocal<LoggableBuffer> BUFFERS = new ThreadLocal<LoggableBuffer>() {
+		@Override
+		protected LoggableBuffer initialValue() {
+			return new LoggableBuffer();
+		}
+	};
+
+	private StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+
+	private LoggableBuffer() {
+	}
+
+	/**
+	 * Get an empty builder, the one of the current thread if it is free.
+	 *
+	 * @return The builder
+	 */
+	static StringBuilder acquire() {
+		final LoggableBuffer buffer = BUFFERS.get();
+		StringBuilder acquired = buffer.builder;
+		if (acquired == null) {
+			acquired = new StringBuilder(INITIAL_CAPACITY);
+		}
+		else {
+			buffer.builder = null;
+			acquired.setLength(0);
+		}
+		return acquired;
+	}
+
+	/**
+	 * Give a builder back.
+	 *
+	 * @param released
+	 *            The builder obtained from {@link #acquire()}
+	 * @return Its content
+	 */
+	static String release(final StringBuilder released) {
+		final String text = released.toString();
+		if (released.capacity() <= MAX_CAPACITY) {
+			BUFFERS.get().builder = released;
+		}
+		return text;
+	}
+
+}
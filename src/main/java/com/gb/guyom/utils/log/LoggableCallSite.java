@@ -0,0 +1,498 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+/**
+ * Precompiled plan of an advised method.
+ *
+ * <p>
+ * Everything {@link LoggableAspectHelper} needs from the method and its {@link Loggable} annotation is resolved once,
+ * when the call site is first reached, so that the advice never touches reflection again.
+ *
+ * <p>
+ * Building a plan has no side effect: it is registered where it is observed (level cache, MBeans, scheduled reports,
+ * trace, overrides) by {@link #start()}, called once on the plan kept in the cache of the call sites.
+ *
+ * @version $Id$
+ */
+public final class LoggableCallSite {
+
+	private static final Class<? extends Throwable>[] NO_IGNORE = noIgnore();
+
+	/**
+	 * Plan of a call site that must not be advised (a method of a {@link Loggable} class which carries its own
+	 * annotation).
+	 */
+	static final LoggableCallSite NONE = new LoggableCallSite();
+
+	private final Method method;
+	private final String className;
+	private final String methodName;
+	private final LoggableHelper loggableHelper;
+	private final Settings defaults;
+	private volatile Settings settings;
+	private final int rate;
+	private final int precision;
+	private final boolean prepend;
+	private final boolean skipResult;
+	private final boolean skipArgs;
+	private final boolean logThis;
+	private final Class<? extends Throwable>[] ignore;
+	private final Ignored ignored;
+	private final Object source;
+	private final Logger logger;
+	private LoggableLevelCache levels;
+	private final boolean returnsVoid;
+	private final boolean returnsStage;
+	private final boolean async;
+	private final boolean histogram;
+	private LoggableStats stats;
+	private final LoggableThreshold threshold;
+	private final Loggable.Structure structure;
+	private final boolean cpu;
+	private final boolean allocated;
+	private final boolean tree;
+	private final boolean deduplicate;
+	private final boolean watchdog;
+	private final LoggableSummary summary;
+	private final boolean counted;
+	private LoggableConcurrency concurrency;
+	private int traceId;
+
+	/**
+	 * Build the plan of a method.
+	 *
+	 * @param loggableHelper
+	 *            The helper
+	 * @param method
+	 *            The method
+	 * @param annotation
+	 *            The annotation
+	 * @param source
+	 *            The source object that logger will use
+	 */
+	LoggableCallSite(final LoggableHelper loggableHelper, final Method method, final Loggable annotation,
+			final Object source) {
+		this.method = method;
+		this.className = method.getDeclaringClass().getName();
+		this.methodName = method.getName();
+		this.loggableHelper = loggableHelper;
+		this.rate = annotation.rate();
+		this.precision = annotation.precision();
+		this.prepend = annotation.prepend();
+		this.skipResult = annotation.skipResult();
+		this.skipArgs = annotation.skipArgs();
+		this.logThis = annotation.logThis();
+		this.ignore = annotation.ignore().clone();
+		this.ignored = new Ignored(ignore);
+		this.source = source;
+		this.logger = loggableHelper.getLogger(source);
+		this.returnsVoid = method.getReturnType().equals(Void.TYPE);
+		this.returnsStage = CompletionStage.class.isAssignableFrom(method.getReturnType());
+		this.async = annotation.async();
+		this.histogram = annotation.histogram();
+		this.counted = annotation.concurrency();
+		this.threshold = annotation.adaptive() ? new LoggableThreshold(annotation.percentile(), annotation.factor(),
+				annotation.warmup(), annotation.warmupSeconds()) : null;
+		this.structure = annotation.structure();
+		this.cpu = annotation.cpu();
+		this.allocated = annotation.allocated();
+		this.tree = annotation.tree();
+		this.deduplicate = annotation.deduplicate();
+		this.watchdog = annotation.watchdog();
+		this.summary = annotation.summary() > 0 ? new LoggableSummary(loggableHelper, annotation.value(), logger,
+				methodName, precision, TimeUnit.SECONDS.toNanos(annotation.summary())) : null;
+		this.defaults = new Settings(true, annotation.value(), annotation.unit().toNanos(annotation.limit()),
+				annotation.trim(), annotation.sampling(), null);
+		this.settings = defaults;
+	}
+
+	private LoggableCallSite() {
+		this.method = null;
+		this.className = "";
+		this.methodName = "";
+		this.loggableHelper = null;
+		this.defaults = new Settings(false, Loggable.Level.INFO, Long.MAX_VALUE, -1, 1, null);
+		this.settings = defaults;
+		this.rate = -1;
+		this.precision = 0;
+		this.prepend = false;
+		this.skipResult = false;
+		this.skipArgs = false;
+		this.logThis = false;
+		this.ignore = NO_IGNORE;
+		this.ignored = new Ignored(ignore);
+		this.source = LoggableCallSite.class;
+		this.logger = null;
+		this.levels = null;
+		this.returnsVoid = true;
+		this.returnsStage = false;
+		this.async = false;
+		this.histogram = false;
+		this.stats = null;
+		this.counted = false;
+		this.concurrency = null;
+		this.threshold = null;
+		this.structure = Loggable.Structure.NONE;
+		this.cpu = false;
+		this.allocated = false;
+		this.tree = false;
+		this.deduplicate = false;
+		this.watchdog = false;
+		this.summary = null;
+		this.traceId = 0;
+	}
+
+	/**
+	 * Register the plan: cache of the enabled levels, statistics and concurrency MBeans, summary and rate limit
+	 * reports, trace dictionary, overrides. The fields set here are published with the plan, by the cache holding it.
+	 *
+	 * @return This plan
+	 */
+	LoggableCallSite start() {
+		this.levels = new LoggableLevelCache(logger);
+		this.stats = histogram ? LoggableStats.forMethod(method) : null;
+		this.concurrency = counted ? LoggableConcurrency.forMethod(method) : null;
+		if (summary != null) {
+			LoggableScheduler.schedule(summary, summary.getInterval());
+		}
+		if (tree) {
+			LoggableTree.use();
+		}
+		this.traceId = LoggableTrace.get() == null ? 0 : LoggableTrace.get().define(this);
+		// creates the limiter, if any
+		LoggableOverrides.register(this);
+		return this;
+	}
+
+	String getClassName() {
+		return className;
+	}
+
+	String getMethodName() {
+		return methodName;
+	}
+
+	Loggable.Level getLevel() {
+		return settings.level;
+	}
+
+	/**
+	 * @return Maximum amount of time allowed for the method, in nanoseconds
+	 */
+	long getLimit() {
+		return settings.limit;
+	}
+
+	int getTrim() {
+		return settings.trim;
+	}
+
+	int getPrecision() {
+		return precision;
+	}
+
+	boolean isPrepend() {
+		return prepend;
+	}
+
+	boolean isSkipResult() {
+		return skipResult;
+	}
+
+	boolean isSkipArgs() {
+		return skipArgs;
+	}
+
+	boolean isLogThis() {
+		return logThis;
+	}
+
+	Class<? extends Throwable>[] getIgnore() {
+		return ignore;
+	}
+
+	/**
+	 * Shall this exception not be logged?
+	 *
+	 * @param exp
+	 *            The exception
+	 * @return TRUE if its type is one of the ignored types, or a subtype of one of them
+	 */
+	boolean isIgnored(final Throwable exp) {
+		return ignore.length > 0 && ignored.get(exp.getClass());
+	}
+
+	Object getSource() {
+		return source;
+	}
+
+	Logger getLogger() {
+		return logger;
+	}
+
+	/**
+	 * Log level is enabled for this call site?
+	 *
+	 * @param level
+	 *            Level of logging
+	 * @return TRUE if enabled
+	 */
+	boolean isEnabled(final Loggable.Level level) {
+		return levels.isEnabled(level);
+	}
+
+	boolean isReturnsVoid() {
+		return returnsVoid;
+	}
+
+	/**
+	 * @return TRUE if the method returns a {@code CompletionStage}, timed until it completes
+	 */
+	boolean isReturnsStage() {
+		return returnsStage;
+	}
+
+	boolean isAsync() {
+		return async;
+	}
+
+	Loggable.Structure getStructure() {
+		return structure;
+	}
+
+	/**
+	 * @return TRUE if the calls made during this one are aggregated into a call tree
+	 */
+	boolean isTree() {
+		return tree;
+	}
+
+	/**
+	 * @return TRUE if identical exceptions are logged once per window
+	 */
+	boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	/**
+	 * @return TRUE if the calls still running past the limit are logged
+	 */
+	boolean isWatchdog() {
+		return watchdog;
+	}
+
+	/**
+	 * @return The counters summed up periodically instead of logging every call, null if every call is logged
+	 */
+	LoggableSummary getSummary() {
+		return summary;
+	}
+
+	/**
+	 * @return Id of the call site in the {@link LoggableTrace}, 0 if not traced
+	 */
+	int getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * The CPU time and bytes allocated by the current thread, when a call starts.
+	 *
+	 * @return The counters, null if none is measured
+	 */
+	LoggableUsage startUsage() {
+		return cpu || allocated ? LoggableUsage.start(cpu, allocated) : null;
+	}
+
+	/**
+	 * @return The latency statistics, null if not recorded
+	 */
+	LoggableStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return The calls in flight, null if not counted
+	 */
+	LoggableConcurrency getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @return The sampling and rate limit, null if every call is logged
+	 */
+	LoggableLimiter getLimiter() {
+		return settings.limiter;
+	}
+
+	/**
+	 * @return FALSE if the call site is switched off by an override
+	 */
+	boolean isOn() {
+		return settings.enabled;
+	}
+
+	/**
+	 * Shall this call be logged? Its level must be enabled, and it must be sampled and within the rate limit. It is
+	 * not, if the calls are summed up.
+	 *
+	 * @return TRUE if the call is logged
+	 */
+	boolean admit() {
+		final Settings current = settings;
+		return summary == null && levels.isEnabled(current.level)
+				&& (current.limiter == null || current.limiter.admit(current.sampling));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Throwable>[] noIgnore() {
+		return (Class<? extends Throwable>[]) new Class<?>[0];
+	}
+
+	/**
+	 * Publish the settings of the annotation, overridden by some rules.
+	 *
+	 * @param rules
+	 *            The rules, the least specific first
+	 */
+	synchronized void override(final List<LoggableOverrides.Rule> rules) {
+		boolean enabled = defaults.enabled;
+		Loggable.Level level = defaults.level;
+		long limit = defaults.limit;
+		int trim = defaults.trim;
+		double sampling = defaults.sampling;
+		for (final LoggableOverrides.Rule rule : rules) {
+			enabled = rule.enabled == null ? enabled : rule.enabled;
+			level = rule.level == null ? level : rule.level;
+			limit = rule.limit == null ? limit : rule.limit;
+			trim = rule.trim == null ? trim : rule.trim;
+			sampling = rule.sampling == null ? sampling : rule.sampling;
+		}
+		this.settings = new Settings(enabled, level, limit, trim, sampling, this.limiter(level, sampling,
+				settings.limiter));
+	}
+
+	/**
+	 * The sampling and rate limit of the call site, created and scheduled once needed.
+	 *
+	 * @param level
+	 *            Level of the reports
+	 * @param sampling
+	 *            Ratio of calls logged
+	 * @param current
+	 *            The current limiter, null if none
+	 * @return The limiter, null if every call is logged
+	 */
+	private LoggableLimiter limiter(final Loggable.Level level, final double sampling, final LoggableLimiter current) {
+		LoggableLimiter limiter = current;
+		if (limiter == null && (sampling < 1 || rate > 0)) {
+			limiter = new LoggableLimiter(loggableHelper, level, logger, methodName, sampling, rate);
+			LoggableScheduler.schedule(limiter);
+		}
+		return limiter;
+	}
+
+	/**
+	 * Tell whether a call was too slow, recording its duration for the adaptive limit.
+	 *
+	 * @param nano
+	 *            Duration of the call
+	 * @return TRUE if over the static or the adaptive limit
+	 */
+	boolean isSlow(final long nano) {
+		final boolean slow = threshold != null && threshold.isSlow(nano);
+		return slow || nano > settings.limit;
+	}
+
+	/**
+	 * Settings that can be overridden at runtime, published as a whole.
+	 */
+	private static final class Settings {
+
+		private final boolean enabled;
+		private final Loggable.Level level;
+		private final long limit;
+		private final int trim;
+		private final double sampling;
+		private final LoggableLimiter limiter;
+
+		Settings(final boolean enabled, final Loggable.Level level, final long limit, final int trim,
+				final double sampling, final LoggableLimiter limiter) {
+			this.enabled = enabled;
+			this.level = level;
+			this.limit = limit;
+			this.trim = trim;
+			this.sampling = sampling;
+			this.limiter = limiter;
+		}
+
+	}
+
+	/**
+	 * Ignore decision, computed once per exception class.
+	 */
+	private static final class Ignored extends ClassValue<Boolean> {
+
+		private final Class<? extends Throwable>[] ignore;
+
+		Ignored(final Class<? extends Throwable>[] ignore) {
+			this.ignore = ignore;
+		}
+
+		@Override
+		protected Boolean computeValue(final Class<?> type) {
+			return this.contains(ignore, type);
+		}
+
+		/**
+		 * Checks whether array of types contains given type.
+		 * 
+		 * @param array
+		 *            Array of them
+		 * @param type
+		 *            The exception type to find
+		 * @return TRUE if it's there
+		 */
+		private boolean contains(final Class<? extends Throwable>[] array, final Class<?> type) {
+			boolean contains = false;
+			for (final Class<? extends Throwable> parent : array) {
+				if (this.instanceOf(type, parent)) {
+					contains = true;
+					break;
+				}
+			}
+			return contains;
+		}
+
+		/**
+		 * The type is an instance of another type?
+		 * 
+		 * @param child
+		 *            The child type
+		 * @param parent
+		 *            Parent type
+		 * @return TRUE if child is really a child of a parent
+		 */
+		private boolean instanceOf(final Class<?> child, final Class<?> parent) {
+			boolean instance = child.equals(parent)
+					|| (child.getSuperclass() != null && this.instanceOf(child.getSuperclass(), parent));
+			if (!instance) {
+				for (final Class<?> iface : child.getInterfaces()) {
+					instance = this.instanceOf(iface, parent);
+					if (instance) {
+						break;
+					}
+				}
+			}
+			return instance;
+		}
+
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls in flight of a {@link Loggable#concurrency()} method.
+ *
+ * <p>
+ * A call is counted from the time the method is entered until it returns or throws; a method returning a
+ * {@code CompletionStage} is not counted while the stage is pending. Calls are counted in stripes, a thread updating
+ * the stripe its id falls in, each stripe on its own cache line, so that concurrent calls do not contend on a single
+ * counter. A call entering the method adds the stripes up, and raises the peak of the method with a compare-and-set
+ * only when that sum exceeds it: the peak is a number of calls that were actually in flight together, up to the calls
+ * entering or leaving while the stripes are read.
+ *
+ * <p>
+ * There is one instance per method, registered on the platform MBean server as
+ * {@code com.gb.guyom.utils.log:type=LoggableConcurrency,class=<class>,method=<method(parameters)>}, until
+ * {@link LoggableStats#unregister(ClassLoader)}.
+ *
+ * @version $Id$
+ */
+public final class LoggableConcurrency implements LoggableConcurrencyMBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableConcurrency.class);
+
+	private static final ConcurrentMap<Method, LoggableConcurrency> CONCURRENCIES = new ConcurrentHashMap<Method, LoggableConcurrency>();
+
+	/**
+	 * Longs per stripe, so that two stripes never share a cache line.
+	 */
+	private static final int STRIDE = 8;
+
+	private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+	private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIDE);
+
+	private final AtomicLong peak = new AtomicLong();
+
+	LoggableConcurrency() {
+	}
+
+	/**
+	 * Get the counters of a method, registering them on first use.
+	 *
+	 * @param method
+	 *            The method
+	 * @return The counters
+	 */
+	static LoggableConcurrency forMethod(final Method method) {
+		LoggableConcurrency concurrency = CONCURRENCIES.get(method);
+		if (concurrency == null) {
+			final LoggableConcurrency created = new LoggableConcurrency();
+			concurrency = CONCURRENCIES.putIfAbsent(method, created);
+			if (concurrency == null) {
+				concurrency = created;
+				register(method, concurrency);
+			}
+		}
+		return concurrency;
+	}
+
+	/**
+	 * Unregister the counters of the methods of a class loader.
+	 *
+	 * @param loader
+	 *            The class loader
+	 */
+	static void unregister(final ClassLoader loader) {
+		for (final Method method : CONCURRENCIES.keySet()) {
+			if (method.getDeclaringClass().getClassLoader() == loader && CONCURRENCIES.remove(method) != null) {
+				LoggableStats.unregister("LoggableConcurrency", method);
+			}
+		}
+	}
+
+	private static void register(final Method method, final LoggableConcurrency concurrency) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(concurrency,
+					LoggableStats.objectName("LoggableConcurrency", method));
+		}
+		catch (final JMException ex) {
+			LOGGER.warn("Unable to register the concurrency of {} over JMX", method, ex);
+		}
+	}
+
+	/**
+	 * Count a call entering the method.
+	 */
+	void enter() {
+		counters.incrementAndGet(stripe());
+		final long current = this.getInFlight();
+		long highest = peak.get();
+		while (current > highest && !peak.compareAndSet(highest, current)) {
+			highest = peak.get();
+		}
+	}
+
+	/**
+	 * Count a call leaving the method, on the thread it entered it.
+	 */
+	void exit() {
+		counters.decrementAndGet(stripe());
+	}
+
+	@Override
+	public long getInFlight() {
+		long current = 0;
+		for (int stripe = 0; stripe < STRIPES; ++stripe) {
+			current += counters.get(stripe * STRIDE);
+		}
+		return current;
+	}
+
+	@Override
+	public long getPeak() {
+		return peak.getAndSet(this.getInFlight());
+	}
+
+	/**
+	 * @return Index of the counter of the stripe of the current thread
+	 */
+	private static int stripe() {
+		return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+	}
+
+}
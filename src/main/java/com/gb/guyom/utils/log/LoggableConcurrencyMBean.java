@@ -0,0 +1,22 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * Number of calls of a {@link Loggable} method in flight, exposed over JMX.
+ *
+ * @version $Id$
+ */
+public interface LoggableConcurrencyMBean {
+
+	/**
+	 * @return Number of calls in flight
+	 */
+	long getInFlight();
+
+	/**
+	 * Reading it resets it to the number of calls in flight.
+	 *
+	 * @return Highest number of calls in flight since the previous read
+	 */
+	long getPeak();
+
+}
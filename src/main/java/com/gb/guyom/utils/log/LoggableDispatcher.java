@@ -0,0 +1,433 @@
+package com.gb.guyom.utils.log;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Hands log events of {@link Loggable#async()} call sites over to background threads.
+ *
+ * <p>
+ * Events are captured into a preallocated, lock-free ring buffer (bounded multi-producer multi-consumer queue, each
+ * slot carrying its own sequence number) and rendered then logged by consumer threads, so neither rendering nor the
+ * appenders run on the advised thread. Arguments, result and {@code this} are captured by reference: an object mutated
+ * right after the call may be rendered in its new state. The name of the advised thread and a copy of its MDC are
+ * captured too: while an event is logged, the consumer takes that name and that MDC, so that appenders see the event as
+ * if it were logged by the advised thread.
+ *
+ * <p>
+ * With a single consumer, the default, events are logged in the order they were offered, so the lines of a thread keep
+ * their order. With more consumers, two events may be logged in either order, even the entry and the return of a
+ * call.
+ *
+ * <p>
+ * A consumer finding the buffer empty parks for longer and longer, then sleeps until an advised thread offers an
+ * event and wakes it up. An advised thread waiting for a free slot parks for longer and longer too.
+ *
+ * <p>
+ * It is configured with system properties:
+ * <ul>
+ * <li>{@code loggable.async.size}: capacity of the ring buffer, rounded up to a power of two (default 8192)</li>
+ * <li>{@code loggable.async.consumers}: number of consumer threads (default 1)</li>
+ * <li>{@code loggable.async.backpressure}: what to do when the buffer is full, one of {@link Backpressure} (default
+ * {@code INLINE})</li>
+ * </ul>
+ *
+ * <p>
+ * Pending events are flushed by a shutdown hook.
+ *
+ * @version $Id$
+ */
+final class LoggableDispatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableDispatcher.class);
+
+	/**
+	 * What to do with an event when the ring buffer is full.
+	 */
+	enum Backpressure {
+		/**
+		 * Wait for a free slot.
+		 */
+		BLOCK,
+		/**
+		 * Drop the event and count it.
+		 */
+		DROP,
+		/**
+		 * Render and log the event on the advised thread.
+		 */
+		INLINE
+	}
+
+	/**
+	 * Kind of event.
+	 */
+	enum Kind {
+		ENTERED, THROWN, RETURNED
+	}
+
+	private static final long MIN_BACKOFF = TimeUnit.MICROSECONDS.toNanos(1);
+	private static final long MAX_BACKOFF = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long FLUSH_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+	private final Slot[] slots;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicInteger sleepers = new AtomicInteger();
+	private final Backpressure backpressure;
+	private final Consumer[] consumers;
+	private volatile boolean running = true;
+
+	LoggableDispatcher(final int size, final int consumerCount, final Backpressure backpressure) {
+		final int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+		this.slots = new Slot[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int pos = 0; pos < capacity; ++pos) {
+			slots[pos] = new Slot();
+			sequences.set(pos, pos);
+		}
+		this.mask = capacity - 1;
+		this.backpressure = backpressure;
+		this.consumers = new Consumer[Math.max(consumerCount, 1)];
+		for (int pos = 0; pos < consumers.length; ++pos) {
+			consumers[pos] = new Consumer(pos);
+			consumers[pos].start();
+		}
+	}
+
+	/**
+	 * @return The dispatcher, started on first use
+	 */
+	static LoggableDispatcher get() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Hand an event over to the consumers.
+	 *
+	 * @return FALSE if the caller must log the event itself
+	 */
+	boolean dispatch(final Kind kind, final LoggableAspectHelper helper, final LoggableCallSite callSite,
+			final Object thiz, final Object[] args, final Object result, final Throwable exp, final long nano,
+			final LoggableUsage usage, final LoggableTree.Node tree, final boolean over, final long concurrent) {
+		boolean dispatched = false;
+		if (running && !(Thread.currentThread() instanceof Consumer)) {
+			dispatched = offer(kind, helper, callSite, thiz, args, result, exp, nano, usage, tree, over, concurrent);
+			if (!dispatched) {
+				switch (backpressure) {
+				case BLOCK:
+					long backoff = MIN_BACKOFF;
+					while (!dispatched && running) {
+						LockSupport.parkNanos(backoff);
+						backoff = Math.min(backoff << 1, MAX_BACKOFF);
+						dispatched = offer(kind, helper, callSite, thiz, args, result, exp, nano, usage, tree, over,
+								concurrent);
+					}
+					break;
+				case DROP:
+					dropped.incrementAndGet();
+					dispatched = true;
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		return dispatched;
+	}
+
+	/**
+	 * @return Number of events dropped since startup
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Stop accepting events, log those pending and wait for the consumers.
+	 */
+	void flush() {
+		running = false;
+		for (final Consumer consumer : consumers) {
+			LockSupport.unpark(consumer);
+		}
+		for (final Consumer consumer : consumers) {
+			try {
+				consumer.join(FLUSH_TIMEOUT);
+			}
+			catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+
+	private boolean offer(final Kind kind, final LoggableAspectHelper helper, final LoggableCallSite callSite,
+			final Object thiz, final Object[] args, final Object result, final Throwable exp, final long nano,
+			final LoggableUsage usage, final LoggableTree.Node tree, final boolean over, final long concurrent) {
+		boolean offered = false;
+		long pos = tail.get();
+		while (true) {
+			final int index = (int) pos & mask;
+			final long delta = sequences.get(index) - pos;
+			if (delta == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					slots[index].fill(kind, helper, callSite, thiz, args, result, exp, nano, usage, tree, over,
+							concurrent, Thread.currentThread().getName(), MDC.getCopyOfContextMap());
+					sequences.lazySet(index, pos + 1);
+					offered = true;
+					if (sleepers.get() > 0) {
+						this.wake();
+					}
+					break;
+				}
+				pos = tail.get();
+			}
+			else if (delta < 0) {
+				// full
+				break;
+			}
+			else {
+				pos = tail.get();
+			}
+		}
+		return offered;
+	}
+
+	/**
+	 * Wake a sleeping consumer up.
+	 */
+	private void wake() {
+		for (final Consumer consumer : consumers) {
+			if (consumer.asleep) {
+				LockSupport.unpark(consumer);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Log one pending event.
+	 *
+	 * @return FALSE if there was none
+	 */
+	private boolean poll() {
+		boolean polled = false;
+		long pos = head.get();
+		while (true) {
+			final int index = (int) pos & mask;
+			final long delta = sequences.get(index) - (pos + 1);
+			if (delta == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					final Slot slot = slots[index];
+					try {
+						slot.log();
+					}
+					finally {
+						slot.clear();
+						sequences.lazySet(index, pos + mask + 1);
+					}
+					polled = true;
+					break;
+				}
+				pos = head.get();
+			}
+			else if (delta < 0) {
+				// empty
+				break;
+			}
+			else {
+				pos = head.get();
+			}
+		}
+		return polled;
+	}
+
+	/**
+	 * A preallocated event.
+	 */
+	private static final class Slot {
+
+		private Kind kind;
+		private LoggableAspectHelper helper;
+		private LoggableCallSite callSite;
+		private Object thiz;
+		private Object[] args;
+		private Object result;
+		private Throwable exp;
+		private long nano;
+		private LoggableUsage usage;
+		private LoggableTree.Node tree;
+		private boolean over;
+		private long concurrent;
+		private String thread;
+		private Map<String, String> mdc;
+
+		void fill(final Kind kind, final LoggableAspectHelper helper, final LoggableCallSite callSite,
+				final Object thiz, final Object[] args, final Object result, final Throwable exp, final long nano,
+				final LoggableUsage usage, final LoggableTree.Node tree, final boolean over, final long concurrent,
+				final String thread, final Map<String, String> mdc) {
+			this.kind = kind;
+			this.helper = helper;
+			this.callSite = callSite;
+			this.thiz = thiz;
+			this.args = args;
+			this.result = result;
+			this.exp = exp;
+			this.nano = nano;
+			this.usage = usage;
+			this.tree = tree;
+			this.over = over;
+			this.concurrent = concurrent;
+			this.thread = thread;
+			this.mdc = mdc;
+		}
+
+		/**
+		 * Log the event under the name and the MDC of the advised thread.
+		 */
+		void log() {
+			final Thread consumer = Thread.currentThread();
+			final String name = consumer.getName();
+			consumer.setName(thread);
+			if (mdc != null) {
+				MDC.setContextMap(mdc);
+			}
+			try {
+				switch (kind) {
+				case ENTERED:
+					helper.logEntered(callSite, thiz, args);
+					break;
+				case THROWN:
+					helper.logThrown(callSite, thiz, args, exp, nano, usage, tree);
+					break;
+				case RETURNED:
+					helper.logReturned(callSite, thiz, args, result, nano, usage, tree, over, concurrent);
+					break;
+				default:
+					LOGGER.error("This kind of event is not handled : {}", kind);
+				}
+			}
+			finally {
+				MDC.clear();
+				consumer.setName(name);
+			}
+		}
+
+		void clear() {
+			fill(null, null, null, null, null, null, null, 0L, null, null, false, 0L, null, null);
+		}
+
+	}
+
+	/**
+	 * Background thread rendering and logging events.
+	 */
+	private final class Consumer extends Thread {
+
+		private final boolean reporter;
+		private long reported;
+		private volatile boolean asleep;
+
+		Consumer(final int number) {
+			super("loggable-async-" + number);
+			this.reporter = number == 0;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			long backoff = 0L;
+			while (running) {
+				if (pollSafely()) {
+					backoff = 0L;
+				}
+				else if (backoff < MAX_BACKOFF) {
+					report();
+					backoff = backoff == 0L ? MIN_BACKOFF : backoff << 1;
+					LockSupport.parkNanos(backoff);
+				}
+				else {
+					report();
+					sleep();
+					backoff = 0L;
+				}
+			}
+			while (pollSafely()) {
+				// flush what is left
+			}
+			report();
+		}
+
+		/**
+		 * Park until an event is offered. The count of sleepers is raised before the tail is read, and an advised
+		 * thread reads it after moving the tail: either this thread sees the event claimed, or the advised thread
+		 * sees it asleep.
+		 */
+		private void sleep() {
+			asleep = true;
+			sleepers.incrementAndGet();
+			if (running && tail.get() == head.get()) {
+				LockSupport.park(this);
+			}
+			sleepers.decrementAndGet();
+			asleep = false;
+		}
+
+		private boolean pollSafely() {
+			boolean polled;
+			try {
+				polled = poll();
+			}
+			catch (final Throwable ex) {
+				LOGGER.error("Failed to log an asynchronous event", ex);
+				polled = true;
+			}
+			return polled;
+		}
+
+		private void report() {
+			if (reporter) {
+				final long total = dropped.get();
+				if (total != reported) {
+					LOGGER.warn("{} asynchronous log events dropped, buffer full", total - reported);
+					reported = total;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Lazy holder of the configured dispatcher.
+	 */
+	private static final class Holder {
+
+		static final LoggableDispatcher INSTANCE = new LoggableDispatcher( //
+				Integer.getInteger("loggable.async.size", 8192), //
+				Integer.getInteger("loggable.async.consumers", 1), //
+				Backpressure.valueOf(System.getProperty("loggable.async.backpressure", Backpressure.INLINE.name())));
+
+		static {
+			Runtime.getRuntime().addShutdownHook(new Thread("loggable-async-flush") {
+				@Override
+				public void run() {
+					INSTANCE.flush();
+				}
+			});
+		}
+
+	}
+
+}
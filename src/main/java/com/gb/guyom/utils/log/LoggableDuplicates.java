@@ -0,0 +1,233 @@
+package com.gb.guyom.utils.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Exceptions thrown again and again out of {@link Loggable#deduplicate()} call sites, logged once per window.
+ *
+ * <p>
+ * An exception is identified by its call site, its class and the place it was thrown from. The first one is logged in
+ * full; the identical ones that follow are only counted, with their maximum duration, and reported by the
+ * {@link LoggableScheduler}:
+ *
+ * <pre>
+ * #find(): 18342 identical java.lang.IllegalStateException thrown out of Dao#find[42] not logged in the last 60s,
+ * max duration 5.00s
+ * </pre>
+ *
+ * <p>
+ * An exception not seen during a whole window is forgotten, so its next occurrence is logged in full again. An identity
+ * is retired atomically with its count, so an occurrence is either counted or logged in full, never lost.
+ *
+ * <p>
+ * Identities are kept in a fixed size, open addressing table ({@code loggable.dedup.size} system property, default
+ * 1024), updated with compare-and-set, and placed by call site and class only: the stack trace of an exception is read
+ * only when one of the same class was already thrown out of the same call site. When the few slots an identity may go
+ * to are all taken, the exception is logged in full: memory stays bounded whatever the number of distinct failures.
+ *
+ * @version $Id$
+ */
+final class LoggableDuplicates implements Runnable {
+
+	private static final int PROBES = 8;
+
+	private final LoggableHelper loggableHelper;
+	private final AtomicReferenceArray<Entry> entries;
+	private final int mask;
+
+	/**
+	 * Create a table.
+	 *
+	 * @param loggableHelper
+	 *            Helper used for the reports
+	 * @param size
+	 *            Number of slots, rounded up to a power of two
+	 */
+	LoggableDuplicates(final LoggableHelper loggableHelper, final int size) {
+		final int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+		this.loggableHelper = loggableHelper;
+		this.entries = new AtomicReferenceArray<Entry>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @return The table, scheduled on first use
+	 */
+	static LoggableDuplicates get() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Shall this exception be logged in full?
+	 *
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param exp
+	 *            The exception
+	 * @param nano
+	 *            Duration of the call
+	 * @return FALSE if an identical one was logged in this window, in which case it is counted
+	 */
+	boolean first(final LoggableCallSite callSite, final Throwable exp, final long nano) {
+		final Class<?> type = exp.getClass();
+		final int hash = hash(callSite, type);
+		StackTraceElement site = null;
+		boolean sited = false;
+		Entry created = null;
+		for (int probe = 0; probe < PROBES; ++probe) {
+			final int index = (hash + probe) & mask;
+			Entry entry = entries.get(index);
+			if (entry == null) {
+				if (created == null) {
+					created = new Entry(callSite, exp);
+				}
+				if (entries.compareAndSet(index, null, created)) {
+					return true;
+				}
+				entry = entries.get(index);
+			}
+			if (entry != null && entry.callSite == callSite && entry.type == type) {
+				if (!sited) {
+					site = site(exp);
+					sited = true;
+				}
+				if (entry.isAt(site)) {
+					if (entry.suppress(nano)) {
+						return false;
+					}
+					// forgotten meanwhile, logged in full and remembered again
+					entries.compareAndSet(index, entry, created == null ? new Entry(callSite, exp) : created);
+					return true;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Report the exceptions not logged since the previous report, and forget those not seen.
+	 */
+	@Override
+	public void run() {
+		for (int index = 0; index < entries.length(); ++index) {
+			final Entry entry = entries.get(index);
+			if (entry != null) {
+				final long count = entry.drain();
+				if (count > 0) {
+					loggableHelper.log(Loggable.Level.ERROR, entry.callSite.getLogger(),
+							"#{}(): {} identical {} thrown out of {} not logged in the last {}, max duration {}",
+							entry.callSite.getMethodName(), count, entry.type.getName(), new LoggableText.ThrowSite(
+									entry.exp), loggableHelper.toText(LoggableScheduler.getInterval(), 0),
+							loggableHelper.toText(entry.longest.getThenReset(), entry.callSite.getPrecision()));
+				}
+				else if (entry.retire()) {
+					entries.compareAndSet(index, entry, null);
+				}
+			}
+		}
+	}
+
+	private static int hash(final LoggableCallSite callSite, final Class<?> type) {
+		final int hash = System.identityHashCode(callSite) * 31 + type.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return The place an exception was thrown from, null if unknown
+	 */
+	private static StackTraceElement site(final Throwable exp) {
+		final StackTraceElement[] traces = exp.getStackTrace();
+		return traces.length == 0 ? null : traces[0];
+	}
+
+	/**
+	 * The identity of an exception, with the occurrences not logged in the current window. The first exception is
+	 * kept until the identity is forgotten, its throw site being read once needed.
+	 */
+	private static final class Entry {
+
+		/**
+		 * Count of an entry forgotten, which no longer counts anything.
+		 */
+		private static final long RETIRED = -1L;
+
+		private final LoggableCallSite callSite;
+		private final Class<?> type;
+		private final Throwable exp;
+		private volatile StackTraceElement trace;
+		private volatile boolean sited;
+		private final AtomicLong suppressed = new AtomicLong();
+		private final LongAccumulator longest = new LongAccumulator(Math::max, 0L);
+
+		Entry(final LoggableCallSite callSite, final Throwable exp) {
+			this.callSite = callSite;
+			this.type = exp.getClass();
+			this.exp = exp;
+		}
+
+		/**
+		 * @return TRUE if the first exception was thrown from the same place
+		 */
+		boolean isAt(final StackTraceElement site) {
+			if (!sited) {
+				trace = site(exp);
+				sited = true;
+			}
+			return trace == null ? site == null : trace.equals(site);
+		}
+
+		/**
+		 * Count an occurrence not logged.
+		 *
+		 * @return FALSE if the entry was forgotten meanwhile
+		 */
+		boolean suppress(final long nano) {
+			long count = suppressed.get();
+			while (count != RETIRED && !suppressed.compareAndSet(count, count + 1)) {
+				count = suppressed.get();
+			}
+			if (count != RETIRED) {
+				longest.accumulate(nano);
+			}
+			return count != RETIRED;
+		}
+
+		/**
+		 * @return The occurrences counted since the previous call, reset
+		 */
+		long drain() {
+			long count = suppressed.get();
+			while (count > 0 && !suppressed.compareAndSet(count, 0L)) {
+				count = suppressed.get();
+			}
+			return Math.max(count, 0L);
+		}
+
+		/**
+		 * Forget the entry, unless an occurrence was counted meanwhile.
+		 *
+		 * @return TRUE if forgotten
+		 */
+		boolean retire() {
+			return suppressed.compareAndSet(0L, RETIRED);
+		}
+
+	}
+
+	/**
+	 * Lazy holder of the configured table.
+	 */
+	private static final class Holder {
+
+		static final LoggableDuplicates INSTANCE = new LoggableDuplicates(new LoggableHelper(), Integer.getInteger(
+				"loggable.dedup.size", 1024));
+
+		static {
+			LoggableScheduler.schedule(INSTANCE);
+		}
+
+	}
+
+}
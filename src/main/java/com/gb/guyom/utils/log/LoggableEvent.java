@@ -0,0 +1,346 @@
+package com.gb.guyom.utils.log;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+/**
+ * The fields of a log line of a {@link Loggable} method.
+ *
+ * <p>
+ * With {@link Loggable.Structure#MARKER}, the event is the marker of the log line: an encoder gets it with
+ * {@code ILoggingEvent.getMarker()} and writes {@link #getFields()}, the duration being a number. With
+ * {@link Loggable.Structure#MDC}, the fields are put in the MDC, as texts, while the line is logged, if its level is
+ * enabled. The arguments and the result are rendered only when read, or put in the MDC.
+ *
+ * <p>
+ * Like any SLF4J marker, it equals every marker named {@value #NAME}, so that {@code MarkerFactory.getMarker(NAME)}
+ * can be used to filter the log lines, and it can hold references to other markers.
+ *
+ * @version $Id$
+ */
+public final class LoggableEvent implements Marker {
+
+	/**
+	 * Name of the marker.
+	 */
+	public static final String NAME = "LOGGABLE";
+
+	/**
+	 * Prefix of the MDC keys.
+	 */
+	public static final String MDC_PREFIX = "loggable.";
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String[] KEYS = { "class", "method", "outcome", "durationNanos", "slow", "cpuNanos",
+			"allocatedBytes", "exception", "args", "result" };
+
+	/**
+	 * What happened to the call.
+	 */
+	public enum Outcome {
+		ENTERED, RETURNED, THROWN
+	}
+
+	private final String className;
+	private final String methodName;
+	private final Outcome outcome;
+	private final long duration;
+	private final boolean slow;
+	private final long cpu;
+	private final long allocated;
+	private final String exception;
+	private final transient Object args;
+	private final transient Object result;
+	private volatile List<Marker> references;
+
+	/**
+	 * Create the fields of a log line.
+	 *
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param outcome
+	 *            What happened to the call
+	 * @param duration
+	 *            Duration of the call in nanoseconds, -1 when entered
+	 * @param slow
+	 *            Did the call take longer than the limit?
+	 * @param usage
+	 *            CPU time and bytes allocated by the call, null if not measured
+	 * @param exception
+	 *            The exception thrown, null if none
+	 * @param args
+	 *            Rendered arguments, null if skipped
+	 * @param result
+	 *            Rendered result, null if none
+	 */
+	LoggableEvent(final LoggableCallSite callSite, final Outcome outcome, final long duration, final boolean slow,
+			final LoggableUsage usage, final Throwable exception, final Object args, final Object result) {
+		this.className = callSite.getClassName();
+		this.methodName = callSite.getMethodName();
+		this.outcome = outcome;
+		this.duration = duration;
+		this.slow = slow;
+		this.cpu = usage == null ? -1L : usage.getCpu();
+		this.allocated = usage == null ? -1L : usage.getAllocated();
+		this.exception = exception == null ? null : exception.getClass().getName();
+		this.args = args;
+		this.result = result;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return Duration of the call in nanoseconds, -1 when entered
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	public boolean isSlow() {
+		return slow;
+	}
+
+	/**
+	 * @return CPU time of the call in nanoseconds, -1 if not measured
+	 */
+	public long getCpu() {
+		return cpu;
+	}
+
+	/**
+	 * @return Bytes allocated by the call, -1 if not measured
+	 */
+	public long getAllocated() {
+		return allocated;
+	}
+
+	/**
+	 * @return Class of the exception thrown, null if none
+	 */
+	public String getException() {
+		return exception;
+	}
+
+	/**
+	 * @return Rendered arguments, null if skipped
+	 */
+	public String getArgs() {
+		return args == null ? null : args.toString();
+	}
+
+	/**
+	 * @return Rendered result, null if none
+	 */
+	public String getResult() {
+		return result == null ? null : result.toString();
+	}
+
+	/**
+	 * @return The fields, in a stable order, absent ones left out
+	 */
+	public Map<String, Object> getFields() {
+		final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		fields.put("class", className);
+		fields.put("method", methodName);
+		fields.put("outcome", outcome.name());
+		if (duration >= 0) {
+			fields.put("durationNanos", duration);
+		}
+		fields.put("slow", slow);
+		if (cpu >= 0) {
+			fields.put("cpuNanos", cpu);
+		}
+		if (allocated >= 0) {
+			fields.put("allocatedBytes", allocated);
+		}
+		if (exception != null) {
+			fields.put("exception", exception);
+		}
+		if (args != null) {
+			fields.put("args", getArgs());
+		}
+		if (result != null) {
+			fields.put("result", getResult());
+		}
+		return fields;
+	}
+
+	/**
+	 * Put the fields in the MDC, rendering the arguments and the result: to be called only if the line is logged.
+	 *
+	 * @return The values the MDC held under the keys of the fields, to give back to {@link #removeMdc(String[])}
+	 */
+	String[] putMdc() {
+		final String[] previous = new String[KEYS.length];
+		for (int pos = 0; pos < KEYS.length; ++pos) {
+			previous[pos] = MDC.get(MDC_PREFIX + KEYS[pos]);
+		}
+		MDC.put(MDC_PREFIX + "class", className);
+		MDC.put(MDC_PREFIX + "method", methodName);
+		MDC.put(MDC_PREFIX + "outcome", outcome.name());
+		if (duration >= 0) {
+			MDC.put(MDC_PREFIX + "durationNanos", Long.toString(duration));
+		}
+		MDC.put(MDC_PREFIX + "slow", Boolean.toString(slow));
+		if (cpu >= 0) {
+			MDC.put(MDC_PREFIX + "cpuNanos", Long.toString(cpu));
+		}
+		if (allocated >= 0) {
+			MDC.put(MDC_PREFIX + "allocatedBytes", Long.toString(allocated));
+		}
+		if (exception != null) {
+			MDC.put(MDC_PREFIX + "exception", exception);
+		}
+		if (args != null) {
+			MDC.put(MDC_PREFIX + "args", getArgs());
+		}
+		if (result != null) {
+			MDC.put(MDC_PREFIX + "result", getResult());
+		}
+		return previous;
+	}
+
+	/**
+	 * Remove the fields from the MDC, putting back the values it held before.
+	 *
+	 * @param previous
+	 *            The values returned by {@link #putMdc()}
+	 */
+	void removeMdc(final String[] previous) {
+		for (int pos = 0; pos < KEYS.length; ++pos) {
+			if (previous[pos] == null) {
+				MDC.remove(MDC_PREFIX + KEYS[pos]);
+			}
+			else {
+				MDC.put(MDC_PREFIX + KEYS[pos], previous[pos]);
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public synchronized void add(final Marker reference) {
+		if (reference == null) {
+			throw new IllegalArgumentException("A null value cannot be added to a Marker as reference.");
+		}
+		// no duplicate, no cycle
+		if (!this.contains(reference) && !reference.contains(this)) {
+			if (references == null) {
+				references = new CopyOnWriteArrayList<Marker>();
+			}
+			references.add(reference);
+		}
+	}
+
+	@Override
+	public synchronized boolean remove(final Marker reference) {
+		return references != null && references.remove(reference);
+	}
+
+	@Override
+	@Deprecated
+	public boolean hasChildren() {
+		return this.hasReferences();
+	}
+
+	@Override
+	public boolean hasReferences() {
+		final List<Marker> current = references;
+		return current != null && !current.isEmpty();
+	}
+
+	@Override
+	public Iterator<Marker> iterator() {
+		final List<Marker> current = references;
+		return current == null ? Collections.<Marker> emptyList().iterator() : current.iterator();
+	}
+
+	@Override
+	public boolean contains(final Marker other) {
+		if (other == null) {
+			throw new IllegalArgumentException("Other cannot be null");
+		}
+		boolean contains = this.equals(other);
+		final List<Marker> current = references;
+		if (!contains && current != null) {
+			for (final Marker reference : current) {
+				if (reference.contains(other)) {
+					contains = true;
+					break;
+				}
+			}
+		}
+		return contains;
+	}
+
+	@Override
+	public boolean contains(final String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("Other cannot be null");
+		}
+		boolean contains = NAME.equals(name);
+		final List<Marker> current = references;
+		if (!contains && current != null) {
+			for (final Marker reference : current) {
+				if (reference.contains(name)) {
+					contains = true;
+					break;
+				}
+			}
+		}
+		return contains;
+	}
+
+	/**
+	 * Markers are equal when they have the same name, as {@code BasicMarker}s are.
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		return this == obj || obj instanceof Marker && NAME.equals(((Marker) obj).getName());
+	}
+
+	@Override
+	public int hashCode() {
+		return NAME.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder text = new StringBuilder(NAME);
+		final List<Marker> current = references;
+		if (current != null && !current.isEmpty()) {
+			text.append(" [ ");
+			for (final Iterator<Marker> it = current.iterator(); it.hasNext();) {
+				text.append(it.next().getName());
+				if (it.hasNext()) {
+					text.append(", ");
+				}
+			}
+			text.append(" ]");
+		}
+		return text.toString();
+	}
+
+}
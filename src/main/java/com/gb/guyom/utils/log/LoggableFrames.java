@@ -0,0 +1,150 @@
+package com.gb.guyom.utils.log;
+
+import java.util.Arrays;
+
+/**
+ * Calls in progress on a thread, for the inline advice of {@link LoggableAspect}.
+ *
+ * <p>
+ * The inline advice runs before and after a method instead of around it, so what the call needs at its end (its plan,
+ * when it started, the counters of the thread, whether it is logged, its watch, its arguments) is kept here in the
+ * meantime.
+ * Frames are parallel arrays, grown when needed and reused afterwards, so that a call allocates nothing.
+ *
+ * @version $Id$
+ */
+final class LoggableFrames {
+
+	private static final ThreadLocal<LoggableFrames> FRAMES = new ThreadLocal<LoggableFrames>() {
+		@Override
+		protected LoggableFrames initialValue() {
+			return new LoggableFrames();
+		}
+	};
+
+	private LoggableCallSite[] callSites = new LoggableCallSite[16];
+	private long[] starts = new long[16];
+	private LoggableUsage[] usages = new LoggableUsage[16];
+	private boolean[] logged = new boolean[16];
+	private LoggableWatchdog.Watch[] watches = new LoggableWatchdog.Watch[16];
+	private Object[] thises = new Object[16];
+	private Object[][] args = new Object[16][];
+	private int depth;
+
+	private LoggableFrames() {
+	}
+
+	/**
+	 * @return The calls in progress on the current thread
+	 */
+	static LoggableFrames get() {
+		return FRAMES.get();
+	}
+
+	/**
+	 * Enter a call.
+	 *
+	 * @param callSite
+	 *            The plan of the call site, null if not advised
+	 * @param start
+	 *            When the call started
+	 * @param usage
+	 *            The counters of the thread when the call started, null if not measured
+	 * @param log
+	 *            Is the call logged?
+	 * @param watch
+	 *            The watch of the call, null if not watched
+	 */
+	void push(final LoggableCallSite callSite, final long start, final LoggableUsage usage, final boolean log,
+			final LoggableWatchdog.Watch watch) {
+		if (depth == callSites.length) {
+			final int size = depth * 2;
+			callSites = Arrays.copyOf(callSites, size);
+			starts = Arrays.copyOf(starts, size);
+			usages = Arrays.copyOf(usages, size);
+			logged = Arrays.copyOf(logged, size);
+			watches = Arrays.copyOf(watches, size);
+			thises = Arrays.copyOf(thises, size);
+			args = Arrays.copyOf(args, size);
+		}
+		callSites[depth] = callSite;
+		starts[depth] = start;
+		usages[depth] = usage;
+		logged[depth] = log;
+		watches[depth] = watch;
+		++depth;
+	}
+
+	/**
+	 * @return TRUE if the current call is logged, so its arguments are needed
+	 */
+	boolean isCapturing() {
+		return depth > 0 && logged[depth - 1];
+	}
+
+	/**
+	 * Keep {@code this} and the arguments of the current call.
+	 *
+	 * @param thiz
+	 *            this
+	 * @param arguments
+	 *            Actual arguments of the method
+	 */
+	void capture(final Object thiz, final Object[] arguments) {
+		thises[depth - 1] = thiz;
+		args[depth - 1] = arguments;
+	}
+
+	LoggableCallSite getCallSite() {
+		return callSites[depth - 1];
+	}
+
+	long getStart() {
+		return starts[depth - 1];
+	}
+
+	/**
+	 * @return The counters of the thread when the call started, null if not measured
+	 */
+	LoggableUsage getUsage() {
+		return usages[depth - 1];
+	}
+
+	boolean isLogged() {
+		return logged[depth - 1];
+	}
+
+	/**
+	 * @return The watch of the call, null if not watched
+	 */
+	LoggableWatchdog.Watch getWatch() {
+		return watches[depth - 1];
+	}
+
+	/**
+	 * @return this, null if not captured
+	 */
+	Object getThis() {
+		return thises[depth - 1];
+	}
+
+	/**
+	 * @return The arguments, null if not captured
+	 */
+	Object[] getArgs() {
+		return args[depth - 1];
+	}
+
+	/**
+	 * Leave the current call.
+	 */
+	void pop() {
+		--depth;
+		callSites[depth] = null;
+		usages[depth] = null;
+		watches[depth] = null;
+		thises[depth] = null;
+		args[depth] = null;
+	}
+
+}
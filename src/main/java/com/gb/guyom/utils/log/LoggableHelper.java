@@ -1,7 +1,11 @@
 package com.gb.guyom.utils.log;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
 
 public class LoggableHelper {
 
@@ -10,6 +14,15 @@ public class LoggableHelper {
 	private static final String COMMA = ", ";
 	private static final String DOTS = "...";
 
+	private static final long[] POWERS = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+			1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+			1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L };
+
+	/**
+	 * Loggers already resolved, by source ({@code Class} or name).
+	 */
+	private final ConcurrentMap<Object, Logger> loggers = new ConcurrentHashMap<Object, Logger>();
+
 	/**
 	 * Log one line.
 	 * 
@@ -23,30 +36,64 @@ public class LoggableHelper {
 	 *            arguments - a list of 3 or more arguments
 	 */
 	void log(final Loggable.Level level, final Object source, final String format, final Object... arguments) {
-		final Logger logger = getLogger(source);
+		this.log(level, getLogger(source), format, arguments);
+	}
+
+	/**
+	 * Log one line with an already resolved logger.
+	 * 
+	 * @param level
+	 *            Level of logging
+	 * @param logger
+	 *            The logger
+	 * @param format
+	 *            The format string
+	 * @param arguments
+	 *            arguments - a list of 3 or more arguments
+	 */
+	void log(final Loggable.Level level, final Logger logger, final String format, final Object... arguments) {
+		this.log(level, logger, null, format, arguments);
+	}
+
+	/**
+	 * Log one line with an already resolved logger and a marker.
+	 * 
+	 * @param level
+	 *            Level of logging
+	 * @param logger
+	 *            The logger
+	 * @param marker
+	 *            The marker, may be null
+	 * @param format
+	 *            The format string
+	 * @param arguments
+	 *            arguments - a list of 3 or more arguments
+	 */
+	void log(final Loggable.Level level, final Logger logger, final Marker marker, final String format,
+			final Object... arguments) {
 		switch (level) {
 		case TRACE:
 			if (logger.isTraceEnabled()) {
-				logger.trace(format, arguments);
+				logger.trace(marker, format, arguments);
 			}
 			break;
 		case DEBUG:
 			if (logger.isDebugEnabled()) {
-				logger.debug(format, arguments);
+				logger.debug(marker, format, arguments);
 			}
 			break;
 		case INFO:
 			if (logger.isInfoEnabled()) {
-				logger.debug(format, arguments);
+				logger.info(marker, format, arguments);
 			}
 			break;
 		case WARN:
 			if (logger.isWarnEnabled()) {
-				logger.warn(format, arguments);
+				logger.warn(marker, format, arguments);
 			}
 			break;
 		case ERROR:
-			logger.error(format, arguments);
+			logger.error(marker, format, arguments);
 			break;
 		default:
 			LOGGER.error("This level of log is not handled : {}", level);
@@ -63,7 +110,19 @@ public class LoggableHelper {
 	 * @return TRUE if enabled
 	 */
 	boolean enabled(final Loggable.Level level, final Object source) {
-		final Logger logger = getLogger(source);
+		return this.enabled(level, getLogger(source));
+	}
+
+	/**
+	 * Log level is enabled on an already resolved logger?
+	 *
+	 * @param level
+	 *            Level of logging
+	 * @param logger
+	 *            The logger
+	 * @return TRUE if enabled
+	 */
+	boolean enabled(final Loggable.Level level, final Logger logger) {
 		boolean enabled = false;
 		switch (level) {
 		case TRACE:
@@ -94,16 +153,26 @@ public class LoggableHelper {
 	 *            Source of the logging operation
 	 * @return The instance of {@code Logger} class
 	 */
-	private Logger getLogger(final Object source) {
-		final Logger srcLogger;
-		if (source instanceof Class) {
-			srcLogger = LoggerFactory.getLogger((Class<?>) source);
-		}
-		else if (source instanceof String) {
-			srcLogger = LoggerFactory.getLogger(String.class.cast(source));
+	Logger getLogger(final Object source) {
+		final Object key;
+		if (source instanceof Class || source instanceof String) {
+			key = source;
 		}
 		else {
-			srcLogger = LoggerFactory.getLogger(source.getClass());
+			key = source.getClass();
+		}
+		Logger srcLogger = loggers.get(key);
+		if (srcLogger == null) {
+			if (key instanceof Class) {
+				srcLogger = LoggerFactory.getLogger((Class<?>) key);
+			}
+			else {
+				srcLogger = LoggerFactory.getLogger(String.class.cast(key));
+			}
+			final Logger previous = loggers.putIfAbsent(key, srcLogger);
+			if (previous != null) {
+				srcLogger = previous;
+			}
 		}
 		return srcLogger;
 	}
@@ -127,168 +196,470 @@ public class LoggableHelper {
 	 */
 	String toText(final Object thiz, final String methodName, final Object[] args, final int trim, final boolean skip,
 			final boolean logThis) {
-		final StringBuilder log = new StringBuilder();
+		final StringBuilder text = LoggableBuffer.acquire();
+		this.appendInvocation(text, thiz, methodName, args, trim, skip, logThis);
+		return LoggableBuffer.release(text);
+	}
+
+	/**
+	 * Make a string out of an exception.
+	 * 
+	 * @param exp
+	 *            The exception
+	 * @return Text representation of it
+	 */
+	String toText(final Throwable exp) {
+		final StringBuilder text = LoggableBuffer.acquire();
+		this.appendThrowable(text, exp);
+		return LoggableBuffer.release(text);
+	}
+
+	/**
+	 * Make a string out of an object.
+	 * 
+	 * @param arg
+	 *            The argument
+	 * @param trim
+	 *            Shall we trim long texts?
+	 * @param skip
+	 *            Shall we skip it with dots?
+	 * @return Text representation of it
+	 */
+	String toText(final Object arg, final int trim, final boolean skip) {
+		final StringBuilder text = LoggableBuffer.acquire();
+		this.appendArgument(text, arg, trim, skip);
+		return LoggableBuffer.release(text);
+	}
+
+	/**
+	 * Create text.
+	 * 
+	 * @param nano
+	 *            period to convert in ns
+	 * @return The text
+	 */
+	String toText(final double nano, int precision) {
+		final StringBuilder text = LoggableBuffer.acquire();
+		this.appendDuration(text, (long) nano, precision);
+		return LoggableBuffer.release(text);
+	}
+
+	/**
+	 * Create text of a duration, followed by the CPU time and the bytes allocated if measured, then by the calls made
+	 * meanwhile if aggregated.
+	 * 
+	 * @param nano
+	 *            period to convert in ns
+	 * @param precision
+	 *            Number of fractional digits
+	 * @param usage
+	 *            The usage of the call, null if not measured
+	 * @param tree
+	 *            The call tree of the call, null if none
+	 * @return The text
+	 */
+	String toText(final long nano, final int precision, final LoggableUsage usage, final LoggableTree.Node tree) {
+		final StringBuilder text = LoggableBuffer.acquire();
+		this.appendDuration(text, nano, precision);
+		this.appendUsage(text, usage, precision);
+		if (tree != null) {
+			tree.appendChildren(this, text, precision);
+		}
+		return LoggableBuffer.release(text);
+	}
 
+	/**
+	 * Append the text of a method call.
+	 * 
+	 * @param out
+	 *            Where to append
+	 * @param thiz
+	 *            this
+	 * @param method
+	 *            The method
+	 * @param args
+	 *            Actual arguments of the method
+	 * @param trim
+	 *            Shall we trim long texts?
+	 * @param skip
+	 *            Shall we skip details and output just dots?
+	 * @param logthis
+	 *            Shall we add toString result to log?
+	 */
+	void appendInvocation(final StringBuilder out, final Object thiz, final String methodName, final Object[] args,
+			final int trim, final boolean skip, final boolean logThis) {
 		if (logThis && (thiz != null)) {
-			log.append(thiz.toString());
+			out.append(thiz.toString());
 		}
 
-		log.append('#').append(methodName).append('(');
+		out.append('#').append(methodName).append('(');
+		this.appendArguments(out, args, trim, skip);
+		out.append(')');
+	}
 
+	/**
+	 * Append the text of the arguments of a method, separated by commas.
+	 * 
+	 * @param out
+	 *            Where to append
+	 * @param args
+	 *            Actual arguments of the method
+	 * @param trim
+	 *            Maximum length of each argument, negative for no trimming
+	 * @param skip
+	 *            Replace them all with dots?
+	 */
+	void appendArguments(final StringBuilder out, final Object[] args, final int trim, final boolean skip) {
 		if (skip) {
-			log.append(LoggableHelper.DOTS);
+			out.append(LoggableHelper.DOTS);
 		}
 		else {
 			for (int pos = 0; pos < args.length; ++pos) {
 				if (pos > 0) {
-					log.append(LoggableHelper.COMMA);
+					out.append(LoggableHelper.COMMA);
 				}
-				log.append(this.toText(args[pos], trim, false));
+				this.appendArgument(out, args[pos], trim, false);
 			}
 		}
-
-		return log.append(')').toString();
 	}
 
 	/**
-	 * Make a string out of an exception.
+	 * Append the text of an exception.
 	 * 
+	 * @param out
+	 *            Where to append
 	 * @param exp
 	 *            The exception
-	 * @return Text representation of it
 	 */
-	String toText(final Throwable exp) {
-		final StringBuilder text = new StringBuilder();
-		text.append(exp.getClass().getName());
+	void appendThrowable(final StringBuilder out, final Throwable exp) {
+		out.append(exp.getClass().getName());
 		final String msg = exp.getMessage();
 		if (msg != null) {
-			text.append('(').append(msg).append(')');
+			out.append('(').append(msg).append(')');
 		}
-		return text.toString();
 	}
 
 	/**
-	 * Make a string out of an object.
+	 * Append the text of an object.
 	 * 
+	 * @param out
+	 *            Where to append
 	 * @param arg
 	 *            The argument
 	 * @param trim
 	 *            Shall we trim long texts?
 	 * @param skip
 	 *            Shall we skip it with dots?
-	 * @return Text representation of it
 	 */
-	String toText(final Object arg, final int trim, final boolean skip) {
-		final StringBuilder text = new StringBuilder();
+	void appendArgument(final StringBuilder out, final Object arg, final int trim, final boolean skip) {
 		if (arg == null) {
-			text.append("NULL");
+			out.append("NULL");
 		}
 		else if (skip) {
-			text.append(LoggableHelper.DOTS);
+			out.append(LoggableHelper.DOTS);
 		}
 		else {
+			final int mark = out.length();
 			try {
-				text.append(trimText(this.toText(arg), trim));
+				this.appendObject(out, arg, trim);
 			}
 			catch (final Throwable ex) {
-				text.append(String.format("[%s thrown %s]", arg.getClass().getName(), this.toText(ex)));
+				out.setLength(mark);
+				out.append('[').append(arg.getClass().getName()).append(" thrown ");
+				this.appendThrowable(out, ex);
+				out.append(']');
 			}
 		}
-		return text.toString();
 	}
 
 	/**
-	 * Create text.
+	 * Append the text of a duration, without {@code String.format}.
 	 * 
+	 * @param out
+	 *            Where to append
 	 * @param nano
 	 *            period to convert in ns
-	 * @return The text
+	 * @param precision
+	 *            Number of fractional digits
 	 */
-	String toText(final double nano, int precision) {
-		final double number;
+	void appendDuration(final StringBuilder out, final long nano, final int precision) {
+		final long abs;
+		if (nano < 0) {
+			out.append('-');
+			abs = -nano;
+		}
+		else {
+			abs = nano;
+		}
+
+		final int decimals;
 		final String title;
-		if (nano < 1000L) {
-			number = nano;
+		if (abs < 1000L) {
+			decimals = 0;
 			title = "ns";
 		}
-		else if (nano < 1000L * 1000) {
-			number = nano / 1000L;
+		else if (abs < 1000L * 1000) {
+			decimals = 3;
 			title = "µs";
 		}
-		else if (nano < 1000L * 1000 * 1000) {
-			number = nano / (1000L * 1000);
+		else if (abs < 1000L * 1000 * 1000) {
+			decimals = 6;
 			title = "ms";
 		}
-		else { // if (nano < 1000L * 1000 * 1000 * 60) {
-			number = nano / (1000L * 1000 * 1000);
+		else {
+			decimals = 9;
 			title = "s";
 		}
 
-		final String format;
-		if (precision >= 0) {
-			format = String.format("%%.%df%%s", precision);
+		appendScaled(out, abs, decimals, precision);
+		out.append(title);
+	}
+
+	/**
+	 * Append a number of bytes, in decimal units.
+	 * 
+	 * @param out
+	 *            Where to append
+	 * @param bytes
+	 *            The bytes
+	 * @param precision
+	 *            Number of fractional digits
+	 */
+	void appendBytes(final StringBuilder out, final long bytes, final int precision) {
+		final long abs;
+		if (bytes < 0) {
+			out.append('-');
+			abs = -bytes;
+		}
+		else {
+			abs = bytes;
+		}
+
+		final int decimals;
+		final String title;
+		if (abs < 1000L) {
+			decimals = 0;
+			title = "B";
+		}
+		else if (abs < 1000L * 1000) {
+			decimals = 3;
+			title = "kB";
+		}
+		else if (abs < 1000L * 1000 * 1000) {
+			decimals = 6;
+			title = "MB";
 		}
 		else {
-			format = "%.0f%s";
+			decimals = 9;
+			title = "GB";
 		}
-		return String.format(format, number, title);
+
+		appendScaled(out, abs, decimals, precision);
+		out.append(title);
 	}
 
 	/**
-	 * Make a string out of an object.
+	 * Append the CPU time and the bytes allocated by a call, if measured, as {@code " [cpu 1.20ms, 3.50kB allocated]"}.
 	 * 
-	 * @param arg
-	 *            The argument
-	 * @return Text representation of it
+	 * @param out
+	 *            Where to append
+	 * @param usage
+	 *            The usage of the call, null if not measured
+	 * @param precision
+	 *            Number of fractional digits
 	 */
-	private String toText(final Object arg) {
-		String text;
-		if (arg.getClass().isArray()) {
-			final StringBuilder bldr = new StringBuilder();
-			bldr.append('[');
-			for (final Object item : (Object[]) arg) {
-				if (bldr.length() > 1) {
-					bldr.append(LoggableHelper.COMMA);
+	void appendUsage(final StringBuilder out, final LoggableUsage usage, final int precision) {
+		if (usage != null && (usage.getCpu() >= 0 || usage.getAllocated() >= 0)) {
+			out.append(" [");
+			if (usage.getCpu() >= 0) {
+				out.append("cpu ");
+				this.appendDuration(out, usage.getCpu(), precision);
+			}
+			if (usage.getAllocated() >= 0) {
+				if (usage.getCpu() >= 0) {
+					out.append(", ");
 				}
-				bldr.append(this.toText(item, -1, false));
+				this.appendBytes(out, usage.getAllocated(), precision);
+				out.append(" allocated");
 			}
-			text = bldr.append(']').toString();
+			out.append(']');
 		}
-		else {
-			final String origin = arg.toString();
-			if (arg instanceof String || origin.contains(" ") || origin.isEmpty()) {
-				text = String.format("'%s'", origin);
+	}
+
+	/**
+	 * Append a positive number divided by a power of ten, rounded half up to a number of fractional digits.
+	 * 
+	 * @param out
+	 *            Where to append
+	 * @param abs
+	 *            The number
+	 * @param decimals
+	 *            The power of ten
+	 * @param precision
+	 *            Number of fractional digits
+	 */
+	private static void appendScaled(final StringBuilder out, final long abs, final int decimals, final int precision) {
+		final int digits = Math.max(precision, 0);
+		if (digits >= decimals) {
+			final long unit = POWERS[decimals];
+			out.append(abs / unit);
+			if (digits > 0) {
+				out.append('.');
+				if (decimals > 0) {
+					appendPadded(out, abs % unit, decimals);
+				}
+				for (int zero = decimals; zero < digits; ++zero) {
+					out.append('0');
+				}
 			}
-			else {
-				text = origin;
+		}
+		else {
+			// half up rounding, as String.format does
+			final long step = POWERS[decimals - digits];
+			final long rounded = (abs + step / 2) / step;
+			out.append(rounded / POWERS[digits]);
+			if (digits > 0) {
+				out.append('.');
+				appendPadded(out, rounded % POWERS[digits], digits);
 			}
 		}
-		return text;
 	}
 
 	/**
-	 * trim the text
+	 * Append the text of a non null object, trimmed, with its {@link LoggableRenderers renderer}.
+	 * 
+	 * @param out
+	 *            Where to append
+	 * @param arg
+	 *            The argument
+	 * @param trim
+	 *            Maximum length, negative for no trimming
+	 */
+	private void appendObject(final StringBuilder out, final Object arg, final int trim) {
+		LoggableRenderers.append(this, out, arg, trim);
+	}
+
+	/**
+	 * Append a text, trimmed and with new lines escaped, in a single pass.
+	 * 
+	 * <p>
+	 * When the text is not shorter than {@code maxLength}, its middle is replaced by {@code ..N..}, N being the number
+	 * of characters over the limit.
 	 * 
+	 * @param out
+	 *            Where to append
 	 * @param text
-	 *            The text to trim
-	 * @return The result
+	 *            The text
+	 * @param quote
+	 *            Shall the text be surrounded by quotes?
+	 * @param maxLength
+	 *            Maximum length, negative for no trimming
 	 */
-	private String trimText(final String text, final int maxLength) {
-		final String result;
-		if (maxLength < 0 || text.length() < maxLength) {
-			result = text;
+	static void appendTrimmed(final StringBuilder out, final CharSequence text, final boolean quote,
+			final int maxLength) {
+		final int length = text.length() + (quote ? 2 : 0);
+		if (maxLength < 0 || length < maxLength) {
+			appendEscaped(out, text, quote, 0, length);
 		}
 		else {
-			final int skip = text.length() - maxLength;
-			final StringBuilder output = new StringBuilder().append(text.substring(0, maxLength / 2)) //
-			.append("..").append(skip).append("..");
-			int beginIndex = text.length() - maxLength + output.length();
-			if (beginIndex < text.length()) {
-				output.append(text.substring(text.length() - maxLength + output.length()));
+			final int head = maxLength / 2;
+			final int skip = length - maxLength;
+			appendEscaped(out, text, quote, 0, head);
+			out.append("..").append(skip).append("..");
+			appendEscaped(out, text, quote, skip + head + 4 + digits(skip), length);
+		}
+	}
+
+	/**
+	 * Append a range of a text, with new lines escaped.
+	 * 
+	 * @param out
+	 *            Where to append
+	 * @param text
+	 *            The text
+	 * @param quote
+	 *            Is the text virtually surrounded by quotes?
+	 * @param from
+	 *            First position, quotes included
+	 * @param to
+	 *            Last position excluded, quotes included
+	 */
+	private static void appendEscaped(final StringBuilder out, final CharSequence text, final boolean quote,
+			final int from, final int to) {
+		final int length = text.length() + (quote ? 2 : 0);
+		for (int pos = from; pos < to; ++pos) {
+			final char chr;
+			if (quote && (pos == 0 || pos == length - 1)) {
+				chr = '\'';
 			}
-			result = output.toString();
+			else {
+				chr = text.charAt(quote ? pos - 1 : pos);
+			}
+			if (chr == '\n') {
+				out.append("\\n");
+			}
+			else {
+				out.append(chr);
+			}
+		}
+	}
+
+	/**
+	 * Trim, in place, what was appended since {@code mark}.
+	 * 
+	 * @param out
+	 *            The buffer
+	 * @param mark
+	 *            Where the text to trim starts
+	 * @param maxLength
+	 *            Maximum length, negative for no trimming
+	 */
+	static void trimAppended(final StringBuilder out, final int mark, final int maxLength) {
+		final int length = out.length() - mark;
+		if (maxLength >= 0 && length >= maxLength) {
+			final int head = maxLength / 2;
+			final int skip = length - maxLength;
+			final int tail = Math.min(skip + head + 4 + digits(skip), length);
+			out.delete(mark + head, mark + tail);
+			int pos = mark + head;
+			out.insert(pos++, '.').insert(pos++, '.');
+			for (int power = digits(skip) - 1; power >= 0; --power) {
+				out.insert(pos++, (char) ('0' + skip / POWERS[power] % 10));
+			}
+			out.insert(pos++, '.').insert(pos, '.');
+		}
+	}
+
+	/**
+	 * Append a positive number, left padded with zeros.
+	 * 
+	 * @param out
+	 *            Where to append
+	 * @param value
+	 *            The number
+	 * @param width
+	 *            Minimum number of digits
+	 */
+	private static void appendPadded(final StringBuilder out, final long value, final int width) {
+		for (int zero = digits(value); zero < width; ++zero) {
+			out.append('0');
+		}
+		out.append(value);
+	}
+
+	/**
+	 * Count the digits of a positive number.
+	 * 
+	 * @param value
+	 *            The number
+	 * @return Number of digits
+	 */
+	private static int digits(final long value) {
+		int digits = 1;
+		while (digits < POWERS.length && value >= POWERS[digits]) {
+			++digits;
 		}
-		return result.replace("\n", "\\n");
+		return digits;
 	}
 
 }
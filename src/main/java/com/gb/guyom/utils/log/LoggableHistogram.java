@@ -0,0 +1,221 @@
+package com.gb.guyom.utils.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, fixed-memory histogram of durations.
+ *
+ * <p>
+ * Buckets are log-linear: every power of two is split in {@code 2^SUB_BITS} linear sub-buckets, which bounds the
+ * relative error of a percentile to about 12%, for any value from 1ns to {@code Long.MAX_VALUE}. A histogram starts
+ * with a single stripe of counters, about 4KB. A thread failing to update it because another one did meanwhile moves
+ * to a stripe of its own, allocated then, so that many cores recording at once do not fight over the same cache lines;
+ * there are at most 4 stripes. Recording never allocates but to create a stripe.
+ *
+ * @version $Id$
+ */
+final class LoggableHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = ((64 - SUB_BITS) << SUB_BITS) + SUB_BUCKETS;
+
+	/**
+	 * Per stripe: the buckets, then the sum of the values. Padded so that two stripes never share a cache line.
+	 */
+	private static final int STRIDE = BUCKETS + 1 + 8;
+	private static final int SUM = BUCKETS;
+
+	private static final int STRIPES = stripes();
+
+	/**
+	 * The stripes, the first one shared by the threads whose own stripe is not created yet.
+	 */
+	private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	LoggableHistogram() {
+		stripes.set(0, new AtomicLongArray(STRIDE));
+	}
+
+	/**
+	 * Record a value.
+	 *
+	 * @param value
+	 *            The value, negative values are counted as 0
+	 */
+	void record(final long value) {
+		final long positive = Math.max(value, 0L);
+		final int bucket = index(positive);
+		final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		AtomicLongArray counters = stripes.get(stripe);
+		if (counters == null) {
+			counters = stripes.get(0);
+			final long count = counters.get(bucket);
+			if (!counters.compareAndSet(bucket, count, count + 1)) {
+				// contended: move to a stripe of its own
+				stripes.compareAndSet(stripe, null, new AtomicLongArray(STRIDE));
+				counters = stripes.get(stripe);
+				counters.incrementAndGet(bucket);
+			}
+		}
+		else {
+			counters.incrementAndGet(bucket);
+		}
+		counters.addAndGet(SUM, positive);
+
+		long current = min.get();
+		while (positive < current && !min.compareAndSet(current, positive)) {
+			current = min.get();
+		}
+		current = max.get();
+		while (positive > current && !max.compareAndSet(current, positive)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Take a consistent enough view of the histogram.
+	 *
+	 * @return The snapshot
+	 */
+	Snapshot snapshot() {
+		final long[] buckets = new long[BUCKETS];
+		long count = 0;
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES; ++stripe) {
+			final AtomicLongArray counters = stripes.get(stripe);
+			if (counters != null) {
+				for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+					final long value = counters.get(bucket);
+					buckets[bucket] += value;
+					count += value;
+				}
+				sum += counters.get(SUM);
+			}
+		}
+		return new Snapshot(buckets, count, sum, min.get(), max.get());
+	}
+
+	/**
+	 * Find the bucket of a value.
+	 *
+	 * @param value
+	 *            A positive value
+	 * @return Index of its bucket
+	 */
+	static int index(final long value) {
+		final int exponent = 63 - Long.numberOfLeadingZeros(value | 1L);
+		final int index;
+		if (exponent < SUB_BITS) {
+			index = (int) value;
+		}
+		else {
+			final int shift = exponent - SUB_BITS;
+			index = ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+		}
+		return index;
+	}
+
+	/**
+	 * Find a representative value of a bucket, its middle.
+	 *
+	 * @param index
+	 *            Index of the bucket
+	 * @return The value
+	 */
+	static long value(final int index) {
+		final long value;
+		if (index < SUB_BUCKETS) {
+			value = index;
+		}
+		else {
+			final int shift = (index >>> SUB_BITS) - 1;
+			final long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+			value = lowest + ((1L << shift) >>> 1);
+		}
+		return value;
+	}
+
+	private static int stripes() {
+		final int processors = Runtime.getRuntime().availableProcessors();
+		return Math.min(Integer.highestOneBit(Math.max(processors - 1, 1)) << 1, 4);
+	}
+
+	/**
+	 * @return Number of stripes created
+	 */
+	int getStripes() {
+		int created = 0;
+		for (int stripe = 0; stripe < STRIPES; ++stripe) {
+			if (stripes.get(stripe) != null) {
+				++created;
+			}
+		}
+		return created;
+	}
+
+	/**
+	 * Frozen view of a histogram.
+	 */
+	static final class Snapshot {
+
+		private final long[] buckets;
+		private final long count;
+		private final long sum;
+		private final long min;
+		private final long max;
+
+		Snapshot(final long[] buckets, final long count, final long sum, final long min, final long max) {
+			this.buckets = buckets;
+			this.count = count;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		long getMin() {
+			return count == 0 ? 0 : min;
+		}
+
+		long getMax() {
+			return count == 0 ? 0 : max;
+		}
+
+		double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * Estimate a percentile.
+		 *
+		 * @param quantile
+		 *            The percentile, between 0 and 1
+		 * @return The value, bounded by the exact minimum and maximum
+		 */
+		long getPercentile(final double quantile) {
+			long percentile = 0;
+			if (count > 0) {
+				final long rank = Math.max((long) Math.ceil(quantile * count), 1L);
+				long seen = 0;
+				for (int bucket = 0; bucket < buckets.length; ++bucket) {
+					seen += buckets[bucket];
+					if (seen >= rank) {
+						percentile = Math.min(Math.max(value(bucket), min), max);
+						break;
+					}
+				}
+			}
+			return percentile;
+		}
+
+	}
+
+}
@@ -0,0 +1,210 @@
+package com.gb.guyom.utils.log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
+import org.aspectj.lang.Aspects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Call sites built ahead of their first call, from the index written at compile time by {@link LoggableProcessor},
+ * when the application is compiled with it.
+ *
+ * <p>
+ * Without it, the first call of an advised method looks its annotation up, creates its logger and builds its plan.
+ * {@link #preload()} does it for every method of the index at once, typically at startup, so that the first call runs
+ * the same path as the following ones. The {@code loggable.preload} system property preloads when the aspect is first
+ * used: {@code true} on the calling thread, {@code background} on a thread of its own.
+ *
+ * <p>
+ * Plans are built by the aspect itself, with its helper, in the cache its advices read: a method called while it is
+ * being preloaded is planned once, by whichever comes first.
+ *
+ * <p>
+ * A class or a method of the index that cannot be found is skipped, it is then planned on its first call.
+ *
+ * @version $Id$
+ */
+public final class LoggableIndex {
+
+	/**
+	 * Name of the index resources.
+	 */
+	static final String RESOURCE = "META-INF/loggable/index";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableIndex.class);
+
+	private LoggableIndex() {
+	}
+
+	/**
+	 * Preload as the {@code loggable.preload} system property requires.
+	 *
+	 * @param aspect
+	 *            The aspect that plans the call sites
+	 */
+	static void preloadIfRequired(final LoggableAspect aspect) {
+		final String mode = System.getProperty("loggable.preload", "false");
+		if ("background".equals(mode)) {
+			preloadInBackground(aspect);
+		}
+		else if (Boolean.parseBoolean(mode)) {
+			preload(aspect, contextClassLoader());
+		}
+	}
+
+	/**
+	 * Build the plans of the call sites of every index found by the context class loader.
+	 *
+	 * @return Number of call sites planned
+	 */
+	public static int preload() {
+		return preload(contextClassLoader());
+	}
+
+	/**
+	 * Build the plans of the call sites of every index found by a class loader.
+	 *
+	 * @param loader
+	 *            The class loader
+	 * @return Number of call sites planned
+	 */
+	public static int preload(final ClassLoader loader) {
+		return preload(Aspects.aspectOf(LoggableAspect.class), loader);
+	}
+
+	/**
+	 * Plan the call sites of every index found by a class loader, in the cache of an aspect.
+	 *
+	 * @param aspect
+	 *            The aspect
+	 * @param loader
+	 *            The class loader
+	 * @return Number of call sites planned, now or earlier
+	 */
+	static int preload(final LoggableAspect aspect, final ClassLoader loader) {
+		int count = 0;
+		try {
+			final Enumeration<URL> indexes = loader.getResources(RESOURCE);
+			while (indexes.hasMoreElements()) {
+				count += read(aspect, indexes.nextElement(), loader);
+			}
+		}
+		catch (final IOException ex) {
+			LOGGER.warn("Unable to read the index of the @Loggable call sites", ex);
+		}
+		return count;
+	}
+
+	/**
+	 * Build the plans of the call sites of every index found by the context class loader, on a daemon thread.
+	 */
+	public static void preloadInBackground() {
+		preloadInBackground(Aspects.aspectOf(LoggableAspect.class));
+	}
+
+	private static void preloadInBackground(final LoggableAspect aspect) {
+		final ClassLoader loader = contextClassLoader();
+		final Thread thread = new Thread("loggable-preload") {
+			@Override
+			public void run() {
+				final long start = System.nanoTime();
+				final int count = preload(aspect, loader);
+				LOGGER.debug("{} @Loggable call sites preloaded in {}", count, new LoggableHelper().toText(
+						System.nanoTime() - start, 0));
+			}
+		};
+		thread.setContextClassLoader(loader);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static ClassLoader contextClassLoader() {
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		return loader == null ? LoggableIndex.class.getClassLoader() : loader;
+	}
+
+	private static int read(final LoggableAspect aspect, final URL index, final ClassLoader loader) throws IOException {
+		int count = 0;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(),
+				StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			while (line != null) {
+				final String[] fields = line.split("\t", -1);
+				try {
+					if ("type".equals(fields[0]) && fields.length >= 2) {
+						count += type(aspect, Class.forName(fields[1], false, loader));
+					}
+					else if ("method".equals(fields[0]) && fields.length >= 4) {
+						count += method(aspect, Class.forName(fields[1], false, loader), fields[2], fields[3]);
+					}
+				}
+				catch (final ClassNotFoundException | LinkageError ex) {
+					LOGGER.debug("Indexed @Loggable class {} not found: {}", fields[1], ex.toString());
+				}
+				line = reader.readLine();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Plan the methods advised through a {@link Loggable} class, as {@link LoggableAspect#loggableClass()} selects
+	 * them.
+	 */
+	private static int type(final LoggableAspect aspect, final Class<?> type) {
+		int count = 0;
+		if (type.isAnnotationPresent(Loggable.class)) {
+			for (final Method method : type.getDeclaredMethods()) {
+				if (Modifier.isPublic(method.getModifiers()) && !method.isSynthetic()
+						&& !method.isAnnotationPresent(Loggable.class) && !isObjectMethod(method)) {
+					aspect.classCallSite(method);
+					++count;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static int method(final LoggableAspect aspect, final Class<?> type, final String name,
+			final String parameters) {
+		int count = 0;
+		for (final Method method : type.getDeclaredMethods()) {
+			if (method.isAnnotationPresent(Loggable.class) && method.getName().equals(name)
+					&& parameters(method).equals(parameters)) {
+				aspect.methodCallSite(method);
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The parameter types of a method, as {@link LoggableProcessor} writes them
+	 */
+	private static String parameters(final Method method) {
+		final StringBuilder text = new StringBuilder();
+		for (final Class<?> type : method.getParameterTypes()) {
+			if (text.length() > 0) {
+				text.append(',');
+			}
+			text.append(type.getTypeName());
+		}
+		return text.toString();
+	}
+
+	private static boolean isObjectMethod(final Method method) {
+		final String name = method.getName();
+		final int parameters = method.getParameterCount();
+		return "toString".equals(name) && parameters == 0 || "hashCode".equals(name) && parameters == 0
+				|| "equals".equals(name) && parameters == 1 || "canEqual".equals(name) && parameters == 1;
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.gb.guyom.utils.log;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.turbo.TurboFilter;
+
+/**
+ * Enabled levels of a call site's logger.
+ *
+ * <p>
+ * The five decisions are resolved together on first use and kept in a single volatile field, so a disabled call site
+ * costs one volatile read, and a look at the turbo filters of the Logback {@link LoggerContext}. Every cache is
+ * invalidated when the context is reset or when a level changes. When the binding is not Logback, or while turbo
+ * filters are configured (their decision may depend on the calling thread), nothing is cached and the logger is asked
+ * every time: a turbo filter added at any time, even without a reset, is thus obeyed at once.
+ *
+ * @version $Id$
+ */
+final class LoggableLevelCache {
+
+	private static final int UNKNOWN = 0;
+	private static final int RESOLVED = 1 << 31;
+
+	private static final Queue<LoggableLevelCache> CACHES = new ConcurrentLinkedQueue<LoggableLevelCache>();
+
+	/**
+	 * Incremented on each invalidation, to detect a decision resolved against a configuration that changed meanwhile.
+	 */
+	private static volatile int generation;
+
+	private static final LoggerContext CONTEXT = listen();
+
+	private static final List<TurboFilter> TURBO_FILTERS = CONTEXT == null ? null : CONTEXT.getTurboFilterList();
+
+	private final Logger logger;
+
+	private volatile int state = UNKNOWN;
+
+	LoggableLevelCache(final Logger logger) {
+		this.logger = logger;
+		if (CONTEXT != null) {
+			CACHES.add(this);
+		}
+	}
+
+	/**
+	 * Log level is enabled?
+	 *
+	 * @param level
+	 *            Level of logging
+	 * @return TRUE if enabled
+	 */
+	boolean isEnabled(final Loggable.Level level) {
+		int bits = state;
+		if (bits == UNKNOWN || !TURBO_FILTERS.isEmpty()) {
+			bits = resolve();
+		}
+		return (bits & (1 << level.ordinal())) != 0;
+	}
+
+	/**
+	 * Ask the logger and cache the answer if it is safe to do so.
+	 *
+	 * @return The enabled levels
+	 */
+	private int resolve() {
+		final int current = generation;
+		int bits = RESOLVED;
+		if (logger.isTraceEnabled()) {
+			bits |= 1 << Loggable.Level.TRACE.ordinal();
+		}
+		if (logger.isDebugEnabled()) {
+			bits |= 1 << Loggable.Level.DEBUG.ordinal();
+		}
+		if (logger.isInfoEnabled()) {
+			bits |= 1 << Loggable.Level.INFO.ordinal();
+		}
+		if (logger.isWarnEnabled()) {
+			bits |= 1 << Loggable.Level.WARN.ordinal();
+		}
+		if (logger.isErrorEnabled()) {
+			bits |= 1 << Loggable.Level.ERROR.ordinal();
+		}
+		if (CONTEXT != null && TURBO_FILTERS.isEmpty()) {
+			state = bits;
+			if (generation != current) {
+				// configuration changed while resolving, the answer may be stale
+				state = UNKNOWN;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Forget every cached decision.
+	 */
+	static void invalidateAll() {
+		generation++;
+		for (final LoggableLevelCache cache : CACHES) {
+			cache.state = UNKNOWN;
+		}
+	}
+
+	/**
+	 * Register the invalidation listener on the Logback context.
+	 *
+	 * @return The context, or null if the binding is not Logback
+	 */
+	private static LoggerContext listen() {
+		LoggerContext context = null;
+		if (LoggerFactory.getILoggerFactory() instanceof LoggerContext) {
+			context = (LoggerContext) LoggerFactory.getILoggerFactory();
+			context.addListener(new Listener());
+		}
+		return context;
+	}
+
+	/**
+	 * Invalidate the caches on any change of the Logback configuration.
+	 */
+	private static final class Listener implements LoggerContextListener {
+
+		@Override
+		public boolean isResetResistant() {
+			return true;
+		}
+
+		@Override
+		public void onStart(final LoggerContext context) {
+			invalidateAll();
+		}
+
+		@Override
+		public void onReset(final LoggerContext context) {
+			invalidateAll();
+		}
+
+		@Override
+		public void onStop(final LoggerContext context) {
+			invalidateAll();
+		}
+
+		@Override
+		public void onLevelChange(final ch.qos.logback.classic.Logger logger, final Level level) {
+			invalidateAll();
+		}
+
+	}
+
+}
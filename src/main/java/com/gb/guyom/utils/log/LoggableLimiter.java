@@ -0,0 +1,125 @@
+package com.gb.guyom.utils.log;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+
+/**
+ * Sampling and rate limit of a call site.
+ *
+ * <p>
+ * A call is admitted if it is sampled ({@link Loggable#sampling()}) and if the rate limit ({@link Loggable#rate()})
+ * lets it through. The rate limit is a token bucket holding one second worth of calls, implemented as a generic cell
+ * rate algorithm: a single {@code AtomicLong} holds the theoretical arrival time of the next call, updated with
+ * compare-and-set. Calls not logged because of this limiter are counted and reported periodically by the
+ * {@link LoggableScheduler}.
+ *
+ * @version $Id$
+ */
+final class LoggableLimiter implements Runnable {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final LoggableHelper loggableHelper;
+	private final Loggable.Level level;
+	private final Logger logger;
+	private final String methodName;
+	private final double sampling;
+	private final long interval;
+	private final AtomicLong arrival;
+	private final LongAdder suppressed = new LongAdder();
+
+	/**
+	 * Create the limiter of a call site.
+	 *
+	 * @param loggableHelper
+	 *            Helper used for the reports
+	 * @param level
+	 *            Level of the reports
+	 * @param logger
+	 *            Logger of the reports
+	 * @param methodName
+	 *            Name of the method
+	 * @param sampling
+	 *            Ratio of calls logged, 1 or more for all
+	 * @param rate
+	 *            Maximum number of calls logged per second, 0 or less for no limit
+	 */
+	LoggableLimiter(final LoggableHelper loggableHelper, final Loggable.Level level, final Logger logger,
+			final String methodName, final double sampling, final int rate) {
+		this.loggableHelper = loggableHelper;
+		this.level = level;
+		this.logger = logger;
+		this.methodName = methodName;
+		this.sampling = sampling;
+		this.interval = rate > 0 ? SECOND / rate : 0L;
+		this.arrival = new AtomicLong(System.nanoTime() - SECOND);
+	}
+
+	/**
+	 * Shall this call be logged?
+	 *
+	 * @return TRUE if the call is sampled and within the rate limit
+	 */
+	boolean admit() {
+		return this.admit(sampling);
+	}
+
+	/**
+	 * Shall this call be logged, with another sampling ratio?
+	 *
+	 * @param ratio
+	 *            Ratio of calls logged, 1 or more for all
+	 * @return TRUE if the call is sampled and within the rate limit
+	 */
+	boolean admit(final double ratio) {
+		return (ratio >= 1 || ThreadLocalRandom.current().nextDouble() < ratio) && acquire();
+	}
+
+	/**
+	 * Count a call that was not logged.
+	 */
+	void suppress() {
+		suppressed.increment();
+	}
+
+	/**
+	 * Report the calls not logged since the previous report.
+	 */
+	@Override
+	public void run() {
+		final long count = suppressed.sumThenReset();
+		if (count > 0) {
+			loggableHelper.log(level, logger, "#{}(): {} calls not logged in the last {}", methodName, count,
+					loggableHelper.toText(LoggableScheduler.getInterval(), 0));
+		}
+	}
+
+	/**
+	 * Take a token.
+	 *
+	 * @return FALSE if the bucket is empty
+	 */
+	private boolean acquire() {
+		boolean acquired = interval == 0;
+		if (!acquired) {
+			final long now = System.nanoTime();
+			while (true) {
+				final long current = arrival.get();
+				final long next = Math.max(current, now - SECOND) + interval;
+				if (next > now) {
+					break;
+				}
+				if (arrival.compareAndSet(current, next)) {
+					acquired = true;
+					break;
+				}
+			}
+		}
+		return acquired;
+	}
+
+}
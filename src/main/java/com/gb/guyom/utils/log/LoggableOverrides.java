@@ -0,0 +1,383 @@
+package com.gb.guyom.utils.log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runtime overrides of the level, limit, trim, sampling and activation of {@link Loggable} call sites.
+ *
+ * <p>
+ * Overrides come from the properties file named by the {@code loggable.overrides} system property, one
+ * {@code pattern = settings} entry per line, and from JMX ({@link LoggableOverridesMBean}), JMX overrides winning
+ * for the same pattern. The file is watched and read again whenever it changes. When several patterns match a call
+ * site, the most specific one (the one with the most characters besides wildcards) wins, setting by setting.
+ *
+ * <p>
+ * Overrides are resolved when they change, not when a method is called: every call site gets an immutable snapshot of
+ * its settings, published through a volatile field.
+ *
+ * @version $Id$
+ */
+public final class LoggableOverrides implements LoggableOverridesMBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableOverrides.class);
+
+	private static final String FILE = System.getProperty("loggable.overrides");
+
+	private static final Queue<LoggableCallSite> CALL_SITES = new ConcurrentLinkedQueue<LoggableCallSite>();
+
+	private static final Map<String, Rule> FROM_FILE = new LinkedHashMap<String, Rule>();
+
+	private static final Map<String, Rule> FROM_JMX = new LinkedHashMap<String, Rule>();
+
+	private static volatile List<Rule> rules = Collections.emptyList();
+
+	static {
+		if (FILE != null) {
+			load();
+			watch(Paths.get(FILE).toAbsolutePath());
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new LoggableOverrides(),
+					new ObjectName("com.gb.guyom.utils.log:type=LoggableOverrides"));
+		}
+		catch (final JMException ex) {
+			LOGGER.warn("Unable to register the overrides over JMX", ex);
+		}
+	}
+
+	private LoggableOverrides() {
+	}
+
+	/**
+	 * Apply the overrides to a call site, now and whenever they change. It holds the lock {@link #apply()} is called
+	 * with, so that the overrides applied now are never older than the ones published meanwhile.
+	 *
+	 * @param callSite
+	 *            The call site
+	 */
+	static void register(final LoggableCallSite callSite) {
+		synchronized (LoggableOverrides.class) {
+			CALL_SITES.add(callSite);
+			callSite.override(matching(rules, callSite));
+		}
+	}
+
+	@Override
+	public String[] getOverrides() {
+		synchronized (LoggableOverrides.class) {
+			final List<String> overrides = new ArrayList<String>();
+			for (final Rule rule : FROM_FILE.values()) {
+				overrides.add(rule.toString());
+			}
+			for (final Rule rule : FROM_JMX.values()) {
+				overrides.add(rule.toString());
+			}
+			return overrides.toArray(new String[overrides.size()]);
+		}
+	}
+
+	@Override
+	public void setOverride(final String pattern, final String settings) {
+		synchronized (LoggableOverrides.class) {
+			FROM_JMX.put(pattern, Rule.parse(pattern, settings));
+			apply();
+		}
+	}
+
+	@Override
+	public void removeOverride(final String pattern) {
+		synchronized (LoggableOverrides.class) {
+			if (FROM_JMX.remove(pattern) != null) {
+				apply();
+			}
+		}
+	}
+
+	@Override
+	public void reload() {
+		if (FILE != null) {
+			load();
+		}
+	}
+
+	/**
+	 * Read the file, then apply the overrides. Invalid entries are skipped.
+	 */
+	private static void load() {
+		final Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(Paths.get(FILE), StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		catch (final NoSuchFileException ex) {
+			LOGGER.info("No loggable overrides in {}", FILE);
+		}
+		catch (final IOException ex) {
+			LOGGER.warn("Unable to read the loggable overrides in {}", FILE, ex);
+			return;
+		}
+		synchronized (LoggableOverrides.class) {
+			FROM_FILE.clear();
+			for (final String pattern : properties.stringPropertyNames()) {
+				try {
+					FROM_FILE.put(pattern, Rule.parse(pattern, properties.getProperty(pattern)));
+				}
+				catch (final IllegalArgumentException ex) {
+					LOGGER.warn("Invalid loggable override {} in {}: {}", pattern, FILE, ex.getMessage());
+				}
+			}
+			apply();
+		}
+	}
+
+	/**
+	 * Publish the overrides to every call site.
+	 */
+	private static void apply() {
+		final Map<String, Rule> merged = new LinkedHashMap<String, Rule>(FROM_FILE);
+		merged.putAll(FROM_JMX);
+		final List<Rule> sorted = new ArrayList<Rule>(merged.values());
+		Collections.sort(sorted, new Comparator<Rule>() {
+			@Override
+			public int compare(final Rule left, final Rule right) {
+				return Integer.compare(left.specificity, right.specificity);
+			}
+		});
+		rules = Collections.unmodifiableList(sorted);
+		for (final LoggableCallSite callSite : CALL_SITES) {
+			callSite.override(matching(sorted, callSite));
+		}
+	}
+
+	/**
+	 * The rules matching a call site.
+	 *
+	 * @param all
+	 *            Every rule, the least specific first
+	 * @param callSite
+	 *            The call site
+	 * @return The matching rules, the least specific first
+	 */
+	private static List<Rule> matching(final List<Rule> all, final LoggableCallSite callSite) {
+		final String name = callSite.getClassName() + '#' + callSite.getMethodName();
+		final List<Rule> matching = new ArrayList<Rule>();
+		for (final Rule rule : all) {
+			if (rule.pattern.matcher(name).matches()) {
+				matching.add(rule);
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * Read the file again whenever it changes, on a daemon thread.
+	 *
+	 * @param file
+	 *            The file
+	 */
+	private static void watch(final Path file) {
+		final WatchService watcher;
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		catch (final IOException ex) {
+			LOGGER.warn("Unable to watch the loggable overrides in {}", file, ex);
+			return;
+		}
+		final Thread thread = new Thread("loggable-overrides") {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final WatchKey key = watcher.take();
+						boolean changed = false;
+						for (final WatchEvent<?> event : key.pollEvents()) {
+							changed |= file.getFileName().equals(event.context());
+						}
+						key.reset();
+						if (changed) {
+							load();
+						}
+					}
+				}
+				catch (final InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				catch (final ClosedWatchServiceException ex) {
+					// stopped
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Settings overridden for the call sites matching a pattern, null when not overridden.
+	 */
+	static final class Rule {
+
+		private final String text;
+		private final Pattern pattern;
+		private final int specificity;
+		final Boolean enabled;
+		final Loggable.Level level;
+		final Long limit;
+		final Integer trim;
+		final Double sampling;
+
+		private Rule(final String text, final String pattern, final Boolean enabled, final Loggable.Level level,
+				final Long limit, final Integer trim, final Double sampling) {
+			this.text = text;
+			this.pattern = compile(pattern);
+			this.specificity = pattern.replace("*", "").length();
+			this.enabled = enabled;
+			this.level = level;
+			this.limit = limit;
+			this.trim = trim;
+			this.sampling = sampling;
+		}
+
+		/**
+		 * Parse settings.
+		 *
+		 * @param pattern
+		 *            The pattern of the call sites
+		 * @param settings
+		 *            The settings, as {@code name=value} separated by commas
+		 * @return The rule
+		 * @throws IllegalArgumentException
+		 *             If a setting is invalid
+		 */
+		static Rule parse(final String pattern, final String settings) {
+			Boolean enabled = null;
+			Loggable.Level level = null;
+			Long limit = null;
+			Integer trim = null;
+			Double sampling = null;
+			for (final String setting : settings.split(",")) {
+				if (setting.trim().isEmpty()) {
+					continue;
+				}
+				final int equal = setting.indexOf('=');
+				if (equal < 0) {
+					throw new IllegalArgumentException("Missing value in '" + setting.trim() + "'");
+				}
+				final String name = setting.substring(0, equal).trim();
+				final String value = setting.substring(equal + 1).trim();
+				if ("enabled".equals(name)) {
+					enabled = Boolean.valueOf(value);
+				}
+				else if ("level".equals(name)) {
+					level = Loggable.Level.valueOf(value.toUpperCase(Locale.ENGLISH));
+				}
+				else if ("limit".equals(name)) {
+					limit = duration(value);
+				}
+				else if ("trim".equals(name)) {
+					trim = Integer.valueOf(value);
+				}
+				else if ("sampling".equals(name)) {
+					sampling = Double.valueOf(value);
+				}
+				else {
+					throw new IllegalArgumentException("Unknown setting '" + name + "'");
+				}
+			}
+			return new Rule(pattern + " = " + settings.trim(), pattern.trim(), enabled, level, limit, trim, sampling);
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+
+		/**
+		 * Parse a duration, in milliseconds unless followed by {@code ns}, {@code us}, {@code ms} or {@code s}.
+		 *
+		 * @param value
+		 *            The duration
+		 * @return The duration in nanoseconds
+		 */
+		private static long duration(final String value) {
+			final TimeUnit unit;
+			final String number;
+			if (value.endsWith("ns")) {
+				unit = TimeUnit.NANOSECONDS;
+				number = value.substring(0, value.length() - 2);
+			}
+			else if (value.endsWith("us")) {
+				unit = TimeUnit.MICROSECONDS;
+				number = value.substring(0, value.length() - 2);
+			}
+			else if (value.endsWith("ms")) {
+				unit = TimeUnit.MILLISECONDS;
+				number = value.substring(0, value.length() - 2);
+			}
+			else if (value.endsWith("s")) {
+				unit = TimeUnit.SECONDS;
+				number = value.substring(0, value.length() - 1);
+			}
+			else {
+				unit = TimeUnit.MILLISECONDS;
+				number = value;
+			}
+			return unit.toNanos(Long.parseLong(number.trim()));
+		}
+
+		/**
+		 * Compile a pattern, {@code *} matching anything and a class alone matching all its methods.
+		 *
+		 * @param pattern
+		 *            The pattern
+		 * @return The regular expression
+		 */
+		private static Pattern compile(final String pattern) {
+			final StringBuilder regex = new StringBuilder();
+			for (final String part : pattern.split("\\*", -1)) {
+				if (regex.length() > 0) {
+					regex.append(".*");
+				}
+				regex.append(Pattern.quote(part));
+			}
+			if (pattern.indexOf('#') < 0) {
+				regex.append("#.*");
+			}
+			return Pattern.compile(regex.toString());
+		}
+
+	}
+
+}
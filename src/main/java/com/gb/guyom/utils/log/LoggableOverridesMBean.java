@@ -0,0 +1,43 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * Runtime overrides of {@link Loggable} call sites, managed over JMX.
+ *
+ * <p>
+ * A pattern is a class name, optionally followed by {@code #} and a method name, where {@code *} matches anything.
+ * Settings are written as {@code level=WARN, limit=200ms, trim=50, sampling=0.1, enabled=false}, every one being
+ * optional.
+ *
+ * @version $Id$
+ */
+public interface LoggableOverridesMBean {
+
+	/**
+	 * @return The overrides in force, as {@code pattern = settings}, from the file then from JMX
+	 */
+	String[] getOverrides();
+
+	/**
+	 * Override the call sites matching a pattern, over the file.
+	 *
+	 * @param pattern
+	 *            The pattern
+	 * @param settings
+	 *            The settings
+	 */
+	void setOverride(String pattern, String settings);
+
+	/**
+	 * Remove an override set over JMX.
+	 *
+	 * @param pattern
+	 *            The pattern
+	 */
+	void removeOverride(String pattern);
+
+	/**
+	 * Read the file again.
+	 */
+	void reload();
+
+}
@@ -0,0 +1,133 @@
+package com.gb.guyom.utils.log;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor writing the index of the {@link Loggable} types and methods of a compilation, read at runtime
+ * by {@link LoggableIndex}.
+ *
+ * <p>
+ * It is not registered as a service, so that javac does not run it in every project using this library. Projects
+ * that want an index name it explicitly, together with their other processors, if any:
+ *
+ * <pre>
+ * javac -processor com.gb.guyom.utils.log.LoggableProcessor ...
+ * </pre>
+ *
+ * <p>
+ * The index is written to {@value LoggableIndex#RESOURCE}, one tab separated line per element. The attributes of the
+ * annotations are not written: {@link LoggableIndex} reads them from the annotations themselves.
+ *
+ * <pre>
+ * type    com.example.Dao
+ * method  com.example.Dao    find    java.lang.String,int
+ * </pre>
+ *
+ * <p>
+ * Constructors are not indexed. An incremental compilation only indexes the classes it compiles.
+ *
+ * @version $Id$
+ */
+@SupportedAnnotationTypes("com.gb.guyom.utils.log.Loggable")
+public final class LoggableProcessor extends AbstractProcessor {
+
+	private final Set<String> lines = new TreeSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+		if (round.processingOver()) {
+			if (!lines.isEmpty()) {
+				this.write();
+			}
+		}
+		else {
+			for (final Element element : round.getElementsAnnotatedWith(Loggable.class)) {
+				if (element.getKind().isClass() || element.getKind().isInterface()) {
+					lines.add("type\t" + this.binaryName((TypeElement) element));
+				}
+				else if (element.getKind() == ElementKind.METHOD) {
+					lines.add("method\t" + this.binaryName((TypeElement) element.getEnclosingElement()) + '\t'
+							+ element.getSimpleName() + '\t' + this.parameters((ExecutableElement) element));
+				}
+			}
+		}
+		return false;
+	}
+
+	private void write() {
+		try {
+			final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+					LoggableIndex.RESOURCE);
+			try (Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8)) {
+				for (final String line : lines) {
+					writer.write(line);
+					writer.write('\n');
+				}
+			}
+		}
+		catch (final IOException ex) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+					"Unable to write the index of the @Loggable call sites: " + ex);
+		}
+	}
+
+	/**
+	 * @return The parameter types of a method, erased, as {@link Class#getTypeName()}, separated by commas
+	 */
+	private String parameters(final ExecutableElement method) {
+		final StringBuilder text = new StringBuilder();
+		for (final VariableElement parameter : method.getParameters()) {
+			if (text.length() > 0) {
+				text.append(',');
+			}
+			text.append(this.typeName(processingEnv.getTypeUtils().erasure(parameter.asType())));
+		}
+		return text.toString();
+	}
+
+	private String typeName(final TypeMirror type) {
+		final String name;
+		if (type.getKind() == TypeKind.ARRAY) {
+			name = this.typeName(((ArrayType) type).getComponentType()) + "[]";
+		}
+		else if (type.getKind() == TypeKind.DECLARED) {
+			name = this.binaryName((TypeElement) ((DeclaredType) type).asElement());
+		}
+		else {
+			name = type.toString();
+		}
+		return name;
+	}
+
+	private String binaryName(final TypeElement type) {
+		return processingEnv.getElementUtils().getBinaryName(type).toString();
+	}
+
+}
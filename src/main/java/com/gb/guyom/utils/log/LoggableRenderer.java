@@ -0,0 +1,33 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * Renders the arguments and results of a given type in log lines.
+ *
+ * <p>
+ * Renderers are discovered with {@link java.util.ServiceLoader}, by listing them in
+ * {@code META-INF/services/com.gb.guyom.utils.log.LoggableRenderer}, or registered with
+ * {@link LoggableRenderers#register(LoggableRenderer)}. The most specific renderer for the class of a value is used,
+ * before the built-in ones.
+ *
+ * @param <T>
+ *            Type of the rendered values
+ * @version $Id$
+ */
+public interface LoggableRenderer<T> {
+
+	/**
+	 * @return Type of the rendered values, subtypes included
+	 */
+	Class<T> getType();
+
+	/**
+	 * Render a value.
+	 *
+	 * @param value
+	 *            The value, never null
+	 * @param sink
+	 *            Where to render, check {@link LoggableSink#isFull()} to stop early
+	 */
+	void render(T value, LoggableSink sink);
+
+}
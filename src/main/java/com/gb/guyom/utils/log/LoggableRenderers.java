@@ -0,0 +1,524 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.reflect.Array;
+import java.nio.CharBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the renderers of arguments and results.
+ *
+ * <p>
+ * The renderer of a class is chosen once, then cached with a {@link ClassValue}: the registered
+ * {@link LoggableRenderer}s first, the most specific one winning, then the built-in ones. Built-in renderers do not
+ * call {@code toString()} on texts, numbers, primitive arrays, collections, maps and optionals, and render them only
+ * as far as the trim budget goes. Other objects are rendered with {@code toString()}.
+ *
+ * @version $Id$
+ */
+public final class LoggableRenderers {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableRenderers.class);
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final List<LoggableRenderer<?>> REGISTERED = new CopyOnWriteArrayList<LoggableRenderer<?>>();
+
+	private static volatile ClassValue<Renderer> dispatch = new Dispatch();
+
+	static {
+		try {
+			for (final LoggableRenderer<?> renderer : ServiceLoader.load(LoggableRenderer.class,
+					LoggableRenderer.class.getClassLoader())) {
+				REGISTERED.add(renderer);
+			}
+		}
+		catch (final ServiceConfigurationError ex) {
+			LOGGER.warn("Loggable renderers not loaded", ex);
+		}
+	}
+
+	private LoggableRenderers() {
+	}
+
+	/**
+	 * Register a renderer, it takes precedence over the renderers registered before for the same type.
+	 *
+	 * @param renderer
+	 *            The renderer
+	 */
+	public static void register(final LoggableRenderer<?> renderer) {
+		REGISTERED.add(renderer);
+		dispatch = new Dispatch();
+	}
+
+	/**
+	 * Unregister a renderer.
+	 *
+	 * @param renderer
+	 *            The renderer
+	 */
+	public static void unregister(final LoggableRenderer<?> renderer) {
+		if (REGISTERED.remove(renderer)) {
+			dispatch = new Dispatch();
+		}
+	}
+
+	/**
+	 * Append the text of a non null object, trimmed.
+	 *
+	 * @param helper
+	 *            Helper rendering the elements
+	 * @param out
+	 *            Where to append
+	 * @param value
+	 *            The object
+	 * @param trim
+	 *            Maximum length, negative for no trimming
+	 */
+	static void append(final LoggableHelper helper, final StringBuilder out, final Object value, final int trim) {
+		dispatch.get(value.getClass()).append(helper, out, value, trim);
+	}
+
+	/**
+	 * Choose the renderer of a class.
+	 *
+	 * @param type
+	 *            The class
+	 * @return The renderer
+	 */
+	private static Renderer resolve(final Class<?> type) {
+		LoggableRenderer<?> best = null;
+		for (final LoggableRenderer<?> renderer : REGISTERED) {
+			if (renderer.getType().isAssignableFrom(type)
+					&& (best == null || best.getType().isAssignableFrom(renderer.getType()))) {
+				best = renderer;
+			}
+		}
+		final Renderer resolved;
+		if (best != null) {
+			resolved = new Custom(best);
+		}
+		else if (type == String.class) {
+			resolved = Builtin.TEXT;
+		}
+		else if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+			resolved = Builtin.INTEGRAL;
+		}
+		else if (type == Double.class || type == Float.class) {
+			resolved = Builtin.DECIMAL;
+		}
+		else if (type == Boolean.class) {
+			resolved = Builtin.BOOLEAN;
+		}
+		else if (type == Character.class) {
+			resolved = Builtin.CHARACTER;
+		}
+		else if (type == byte[].class) {
+			resolved = Builtin.BYTES;
+		}
+		else if (type == char[].class) {
+			resolved = Builtin.CHARS;
+		}
+		else if (type.isArray()) {
+			resolved = Elements.of(type.getComponentType());
+		}
+		else if (BoundedRenderable.class.isAssignableFrom(type)) {
+			resolved = Builtin.RENDERABLE;
+		}
+		else if (CharSequence.class.isAssignableFrom(type)) {
+			resolved = Builtin.TEXT;
+		}
+		else if (Collection.class.isAssignableFrom(type)) {
+			resolved = Builtin.COLLECTION;
+		}
+		else if (Map.class.isAssignableFrom(type)) {
+			resolved = Builtin.MAP;
+		}
+		else if (type == Optional.class) {
+			resolved = Builtin.OPTIONAL;
+		}
+		else {
+			resolved = Builtin.OTHER;
+		}
+		return resolved;
+	}
+
+	/**
+	 * Render through a sink, then append the number of characters dropped.
+	 *
+	 * @param out
+	 *            Where to append
+	 * @param trim
+	 *            Maximum length, negative for no trimming
+	 * @param renderable
+	 *            What to render
+	 * @param renderer
+	 *            How to render it
+	 */
+	@SuppressWarnings("unchecked")
+	private static void appendBounded(final StringBuilder out, final int trim, final Object renderable,
+			final LoggableRenderer<?> renderer) {
+		final LoggableSink sink = new LoggableSink(out, trim);
+		if (renderer == null) {
+			((BoundedRenderable) renderable).renderTo(sink);
+		}
+		else {
+			((LoggableRenderer<Object>) renderer).render(renderable, sink);
+		}
+		if (sink.getDropped() > 0) {
+			out.append("..").append(sink.getDropped()).append("..");
+		}
+	}
+
+	/**
+	 * Append elements, stopping once the trim budget is spent. Each element is trimmed on its own, like an argument.
+	 *
+	 * @param helper
+	 *            Helper rendering the elements
+	 * @param out
+	 *            Where to append
+	 * @param elements
+	 *            The elements, map entries are rendered as {@code key=value}
+	 * @param size
+	 *            Number of elements
+	 * @param open
+	 *            Opening character
+	 * @param close
+	 *            Closing character
+	 * @param trim
+	 *            Maximum length, negative for no trimming
+	 */
+	private static void appendElements(final LoggableHelper helper, final StringBuilder out,
+			final Iterator<?> elements, final int size, final char open, final char close, final int trim) {
+		final int mark = out.length();
+		out.append(open);
+		int count = 0;
+		while (elements.hasNext() && startElement(out, mark, count, trim)) {
+			final Object element = elements.next();
+			if (element instanceof Map.Entry) {
+				final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+				helper.appendArgument(out, entry.getKey(), trim, false);
+				out.append('=');
+				helper.appendArgument(out, entry.getValue(), trim, false);
+			}
+			else {
+				helper.appendArgument(out, element, trim, false);
+			}
+			++count;
+		}
+		endElements(out, count, size, close);
+	}
+
+	/**
+	 * Append the separator before an element, if the trim budget is not spent.
+	 *
+	 * @param out
+	 *            Where to append
+	 * @param mark
+	 *            Where the elements start
+	 * @param count
+	 *            Number of elements already appended
+	 * @param trim
+	 *            Maximum length, negative for no trimming
+	 * @return FALSE if the budget is spent, nothing was appended
+	 */
+	private static boolean startElement(final StringBuilder out, final int mark, final int count, final int trim) {
+		final int before = out.length();
+		if (count > 0) {
+			out.append(", ");
+		}
+		final boolean started = trim < 0 || out.length() - mark < trim;
+		if (!started) {
+			out.setLength(before);
+		}
+		return started;
+	}
+
+	/**
+	 * Append the number of elements left out, if any, and the closing character.
+	 *
+	 * @param out
+	 *            Where to append
+	 * @param count
+	 *            Number of elements appended
+	 * @param size
+	 *            Number of elements
+	 * @param close
+	 *            Closing character
+	 */
+	private static void endElements(final StringBuilder out, final int count, final int size, final char close) {
+		if (count < size) {
+			if (count > 0) {
+				out.append(", ");
+			}
+			out.append("..").append(size - count).append(" more");
+		}
+		out.append(close);
+	}
+
+	/**
+	 * How to append a value.
+	 */
+	private interface Renderer {
+		void append(LoggableHelper helper, StringBuilder out, Object value, int trim);
+	}
+
+	/**
+	 * Renderer chosen for every class on first use.
+	 */
+	private static final class Dispatch extends ClassValue<Renderer> {
+		@Override
+		protected Renderer computeValue(final Class<?> type) {
+			return resolve(type);
+		}
+	}
+
+	/**
+	 * A registered renderer, writing into a sink.
+	 */
+	private static final class Custom implements Renderer {
+		private final LoggableRenderer<?> renderer;
+
+		Custom(final LoggableRenderer<?> renderer) {
+			this.renderer = renderer;
+		}
+
+		@Override
+		public void append(final LoggableHelper helper, final StringBuilder out, final Object value, final int trim) {
+			appendBounded(out, trim, value, renderer);
+		}
+	}
+
+	/**
+	 * Built-in renderers.
+	 */
+	private enum Builtin implements Renderer {
+		TEXT {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				LoggableHelper.appendTrimmed(out, (CharSequence) value, true, trim);
+			}
+		},
+		CHARS {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				LoggableHelper.appendTrimmed(out, CharBuffer.wrap((char[]) value), true, trim);
+			}
+		},
+		INTEGRAL {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final int mark = out.length();
+				out.append(((Number) value).longValue());
+				LoggableHelper.trimAppended(out, mark, trim);
+			}
+		},
+		DECIMAL {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final int mark = out.length();
+				if (value instanceof Float) {
+					out.append(((Float) value).floatValue());
+				}
+				else {
+					out.append(((Double) value).doubleValue());
+				}
+				LoggableHelper.trimAppended(out, mark, trim);
+			}
+		},
+		BOOLEAN {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final int mark = out.length();
+				out.append(((Boolean) value).booleanValue());
+				LoggableHelper.trimAppended(out, mark, trim);
+			}
+		},
+		CHARACTER {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final char chr = ((Character) value).charValue();
+				if (chr == ' ') {
+					out.append("' '");
+				}
+				else if (chr == '\n') {
+					out.append("\\n");
+				}
+				else {
+					out.append(chr);
+				}
+			}
+		},
+		BYTES {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final byte[] bytes = (byte[]) value;
+				final int mark = out.length();
+				out.append("byte[").append(bytes.length).append(']');
+				int pos = 0;
+				if (bytes.length > 0) {
+					out.append(' ');
+					while (pos < bytes.length && (trim < 0 || out.length() - mark < trim)) {
+						out.append(HEX[bytes[pos] >> 4 & 0xF]).append(HEX[bytes[pos] & 0xF]);
+						++pos;
+					}
+				}
+				if (pos < bytes.length) {
+					out.append("..").append(bytes.length - pos).append(" more");
+				}
+			}
+		},
+		RENDERABLE {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				appendBounded(out, trim, value, null);
+			}
+		},
+		COLLECTION {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final Collection<?> collection = (Collection<?>) value;
+				appendElements(helper, out, collection.iterator(), collection.size(), '[', ']', trim);
+			}
+		},
+		MAP {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final Map<?, ?> map = (Map<?, ?>) value;
+				appendElements(helper, out, map.entrySet().iterator(), map.size(), '{', '}', trim);
+			}
+		},
+		OPTIONAL {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final Optional<?> optional = (Optional<?>) value;
+				if (optional.isPresent()) {
+					out.append("Optional[");
+					helper.appendArgument(out, optional.get(), trim, false);
+					out.append(']');
+				}
+				else {
+					out.append("Optional.empty");
+				}
+			}
+		},
+		OTHER {
+			@Override
+			public void append(final LoggableHelper helper, final StringBuilder out, final Object value,
+					final int trim) {
+				final String origin = value.toString();
+				LoggableHelper.appendTrimmed(out, origin, origin.isEmpty() || origin.indexOf(' ') >= 0, trim);
+			}
+		};
+	}
+
+	/**
+	 * Arrays, rendered by index so that primitive items are not boxed.
+	 */
+	private abstract static class Elements implements Renderer {
+
+		private static final Elements OBJECTS = new Elements() {
+			@Override
+			void appendItem(final LoggableHelper helper, final StringBuilder out, final Object array,
+					final int index, final int trim) {
+				helper.appendArgument(out, ((Object[]) array)[index], trim, false);
+			}
+		};
+
+		private static final Elements INTEGRALS = new Elements() {
+			@Override
+			void appendItem(final LoggableHelper helper, final StringBuilder out, final Object array,
+					final int index, final int trim) {
+				final int mark = out.length();
+				if (array instanceof int[]) {
+					out.append(((int[]) array)[index]);
+				}
+				else if (array instanceof long[]) {
+					out.append(((long[]) array)[index]);
+				}
+				else {
+					out.append(((short[]) array)[index]);
+				}
+				LoggableHelper.trimAppended(out, mark, trim);
+			}
+		};
+
+		private static final Elements DECIMALS = new Elements() {
+			@Override
+			void appendItem(final LoggableHelper helper, final StringBuilder out, final Object array,
+					final int index, final int trim) {
+				final int mark = out.length();
+				if (array instanceof double[]) {
+					out.append(((double[]) array)[index]);
+				}
+				else {
+					out.append(((float[]) array)[index]);
+				}
+				LoggableHelper.trimAppended(out, mark, trim);
+			}
+		};
+
+		private static final Elements BOOLEANS = new Elements() {
+			@Override
+			void appendItem(final LoggableHelper helper, final StringBuilder out, final Object array,
+					final int index, final int trim) {
+				out.append(((boolean[]) array)[index]);
+			}
+		};
+
+		static Elements of(final Class<?> component) {
+			final Elements elements;
+			if (!component.isPrimitive()) {
+				elements = OBJECTS;
+			}
+			else if (component == double.class || component == float.class) {
+				elements = DECIMALS;
+			}
+			else if (component == boolean.class) {
+				elements = BOOLEANS;
+			}
+			else {
+				elements = INTEGRALS;
+			}
+			return elements;
+		}
+
+		@Override
+		public void append(final LoggableHelper helper, final StringBuilder out, final Object value, final int trim) {
+			final int size = Array.getLength(value);
+			final int mark = out.length();
+			out.append('[');
+			int count = 0;
+			while (count < size && startElement(out, mark, count, trim)) {
+				appendItem(helper, out, value, count, trim);
+				++count;
+			}
+			endElements(out, count, size, ']');
+		}
+
+		abstract void appendItem(LoggableHelper helper, StringBuilder out, Object array, int index, int trim);
+
+	}
+
+}
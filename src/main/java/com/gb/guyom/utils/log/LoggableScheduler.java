@@ -0,0 +1,114 @@
+package com.gb.guyom.utils.log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The single background thread running periodic reports.
+ *
+ * <p>
+ * Reports run every {@code loggable.report.interval} seconds (system property, default 60), unless they have an
+ * interval of their own. On shutdown, the thread
+ * is stopped and every report runs one last time, so that nothing counted since the previous run is lost.
+ *
+ * @version $Id$
+ */
+final class LoggableScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableScheduler.class);
+
+	private static final long INTERVAL = TimeUnit.SECONDS.toNanos(Long.getLong("loggable.report.interval", 60L));
+
+	private static final Queue<Runnable> REPORTS = new ConcurrentLinkedQueue<Runnable>();
+
+	private static final ScheduledExecutorService EXECUTOR = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "loggable-scheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread("loggable-scheduler-shutdown") {
+			@Override
+			public void run() {
+				shutdown();
+			}
+		});
+	}
+
+	private LoggableScheduler() {
+	}
+
+	/**
+	 * @return Interval between two runs of a report, in nanoseconds
+	 */
+	static long getInterval() {
+		return INTERVAL;
+	}
+
+	/**
+	 * Run a report periodically.
+	 *
+	 * @param report
+	 *            The report
+	 */
+	static void schedule(final Runnable report) {
+		schedule(report, INTERVAL);
+	}
+
+	/**
+	 * Run a report periodically, at its own interval.
+	 *
+	 * @param report
+	 *            The report
+	 * @param interval
+	 *            Interval between two runs, in nanoseconds
+	 */
+	static void schedule(final Runnable report, final long interval) {
+		REPORTS.add(report);
+		EXECUTOR.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				runSafely(report);
+			}
+		}, interval, interval, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stop the thread and run every report one last time.
+	 */
+	static void shutdown() {
+		EXECUTOR.shutdownNow();
+		try {
+			EXECUTOR.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch (final InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		for (final Runnable report : REPORTS) {
+			runSafely(report);
+		}
+	}
+
+	private static void runSafely(final Runnable report) {
+		try {
+			report.run();
+		}
+		catch (final RuntimeException ex) {
+			// an exception would cancel the next runs
+			LOGGER.error("Periodic report failed", ex);
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * Length-bounded text sink given to {@link BoundedRenderable} objects.
+ *
+ * <p>
+ * Text appended once the budget is spent is not kept, only counted, and new lines are escaped.
+ *
+ * @version $Id$
+ */
+public final class LoggableSink {
+
+	private final StringBuilder out;
+	private final int limit;
+	private long dropped;
+
+	/**
+	 * Create a sink.
+	 *
+	 * @param out
+	 *            Where to append
+	 * @param budget
+	 *            Maximum number of characters kept, negative for no limit
+	 */
+	LoggableSink(final StringBuilder out, final int budget) {
+		this.out = out;
+		this.limit = budget < 0 ? Integer.MAX_VALUE : out.length() + budget;
+	}
+
+	/**
+	 * @return TRUE if nothing more will be kept
+	 */
+	public boolean isFull() {
+		return out.length() >= limit;
+	}
+
+	/**
+	 * Append a text.
+	 *
+	 * @param text
+	 *            The text
+	 * @return This sink
+	 */
+	public LoggableSink append(final CharSequence text) {
+		final CharSequence chars = text == null ? "NULL" : text;
+		for (int pos = 0; pos < chars.length(); ++pos) {
+			if (isFull()) {
+				dropped += chars.length() - pos;
+				break;
+			}
+			append(chars.charAt(pos));
+		}
+		return this;
+	}
+
+	/**
+	 * Append a character.
+	 *
+	 * @param chr
+	 *            The character
+	 * @return This sink
+	 */
+	public LoggableSink append(final char chr) {
+		if (isFull()) {
+			++dropped;
+		}
+		else if (chr == '\n') {
+			out.append("\\n");
+		}
+		else {
+			out.append(chr);
+		}
+		return this;
+	}
+
+	/**
+	 * Append a number.
+	 *
+	 * @param number
+	 *            The number
+	 * @return This sink
+	 */
+	public LoggableSink append(final long number) {
+		if (isFull()) {
+			for (long rest = number; rest != 0; rest /= 10) {
+				++dropped;
+			}
+			dropped += number > 0 ? 0 : 1;
+		}
+		else {
+			out.append(number);
+		}
+		return this;
+	}
+
+	/**
+	 * @return Number of characters offered but not kept
+	 */
+	long getDropped() {
+		return dropped;
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency statistics of a {@link Loggable#histogram()} method.
+ *
+ * <p>
+ * There is one instance per method, registered on the platform MBean server as
+ * {@code com.gb.guyom.utils.log:type=Loggable,class=<class>,method=<method(parameters)>}. It stays registered, along
+ * with the class loader of its method, until {@link #unregister(ClassLoader)}.
+ *
+ * @version $Id$
+ */
+public final class LoggableStats implements LoggableStatsMBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableStats.class);
+
+	private static final ConcurrentMap<Method, LoggableStats> STATS = new ConcurrentHashMap<Method, LoggableStats>();
+
+	private final LoggableHistogram histogram = new LoggableHistogram();
+	private final AtomicLong errors = new AtomicLong();
+
+	private LoggableStats() {
+	}
+
+	/**
+	 * Get the statistics of a method, registering them on first use.
+	 *
+	 * @param method
+	 *            The method
+	 * @return The statistics
+	 */
+	static LoggableStats forMethod(final Method method) {
+		LoggableStats stats = STATS.get(method);
+		if (stats == null) {
+			final LoggableStats created = new LoggableStats();
+			stats = STATS.putIfAbsent(method, created);
+			if (stats == null) {
+				stats = created;
+				register(method, stats);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Name of the MBean of a method.
+	 *
+	 * @param method
+	 *            The method
+	 * @return The name
+	 * @throws JMException
+	 *             If the name is malformed
+	 */
+	static ObjectName objectName(final Method method) throws JMException {
+		return objectName("Loggable", method);
+	}
+
+	/**
+	 * Name of an MBean of a method, its parameter types fully qualified so that overloads do not collide.
+	 *
+	 * @param type
+	 *            The type of the MBean
+	 * @param method
+	 *            The method
+	 * @return The name
+	 * @throws JMException
+	 *             If the name is malformed
+	 */
+	static ObjectName objectName(final String type, final Method method) throws JMException {
+		final StringBuilder signature = new StringBuilder(method.getName()).append('(');
+		final Class<?>[] types = method.getParameterTypes();
+		for (int pos = 0; pos < types.length; ++pos) {
+			if (pos > 0) {
+				signature.append(',');
+			}
+			signature.append(types[pos].getTypeName());
+		}
+		signature.append(')');
+		return new ObjectName("com.gb.guyom.utils.log:type=" + type + ",class="
+				+ ObjectName.quote(method.getDeclaringClass().getName()) + ",method="
+				+ ObjectName.quote(signature.toString()));
+	}
+
+	/**
+	 * Unregister the statistics and the counters of calls in flight ({@link LoggableConcurrency}) of the methods of a
+	 * class loader, so that it can be collected once discarded, for example when a web application is undeployed.
+	 *
+	 * @param loader
+	 *            The class loader
+	 */
+	public static void unregister(final ClassLoader loader) {
+		for (final Method method : STATS.keySet()) {
+			if (method.getDeclaringClass().getClassLoader() == loader && STATS.remove(method) != null) {
+				unregister("Loggable", method);
+			}
+		}
+		LoggableConcurrency.unregister(loader);
+	}
+
+	/**
+	 * Unregister an MBean of a method, if registered.
+	 *
+	 * @param type
+	 *            The type of the MBean
+	 * @param method
+	 *            The method
+	 */
+	static void unregister(final String type, final Method method) {
+		try {
+			final ObjectName name = objectName(type, method);
+			if (ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+		}
+		catch (final JMException ex) {
+			LOGGER.warn("Unable to unregister the {} MBean of {}", type, method, ex);
+		}
+	}
+
+	private static void register(final Method method, final LoggableStats stats) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName(method));
+		}
+		catch (final JMException ex) {
+			LOGGER.warn("Unable to register the statistics of {} over JMX", method, ex);
+		}
+	}
+
+	/**
+	 * Record a successful call.
+	 *
+	 * @param nano
+	 *            Duration of the call
+	 */
+	void record(final long nano) {
+		histogram.record(nano);
+	}
+
+	/**
+	 * Record a call that threw.
+	 *
+	 * @param nano
+	 *            Duration of the call
+	 */
+	void recordError(final long nano) {
+		errors.incrementAndGet();
+		histogram.record(nano);
+	}
+
+	@Override
+	public long getCount() {
+		return histogram.snapshot().getCount();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	@Override
+	public long getMin() {
+		return histogram.snapshot().getMin();
+	}
+
+	@Override
+	public long getMax() {
+		return histogram.snapshot().getMax();
+	}
+
+	@Override
+	public double getMean() {
+		return histogram.snapshot().getMean();
+	}
+
+	@Override
+	public long getP50() {
+		return histogram.snapshot().getPercentile(0.5);
+	}
+
+	@Override
+	public long getP90() {
+		return histogram.snapshot().getPercentile(0.9);
+	}
+
+	@Override
+	public long getP99() {
+		return histogram.snapshot().getPercentile(0.99);
+	}
+
+	@Override
+	public long getP999() {
+		return histogram.snapshot().getPercentile(0.999);
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * Latency statistics of a {@link Loggable} method, exposed over JMX.
+ *
+ * <p>
+ * Durations are in nanoseconds, percentiles are estimated within about 12%.
+ *
+ * @version $Id$
+ */
+public interface LoggableStatsMBean {
+
+	long getCount();
+
+	long getErrorCount();
+
+	long getMin();
+
+	long getMax();
+
+	double getMean();
+
+	long getP50();
+
+	long getP90();
+
+	long getP99();
+
+	long getP999();
+
+}
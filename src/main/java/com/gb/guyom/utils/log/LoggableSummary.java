@@ -0,0 +1,158 @@
+package com.gb.guyom.utils.log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+
+/**
+ * Counters of a {@link Loggable#summary()} call site, logged as a single line per interval instead of one per call.
+ *
+ * <p>
+ * Calls, errors, slow calls, and the total, minimum and maximum durations are kept in stripes, a thread updating the
+ * stripe its id falls in, each stripe on its own cache line. The report takes every counter with an atomic
+ * get-and-set, so that no update is lost: an update racing with the report is only counted in the next interval. A
+ * method not called during an interval is not reported.
+ *
+ * @version $Id$
+ */
+final class LoggableSummary implements Runnable {
+
+	private static final int CALLS = 0;
+	private static final int ERRORS = 1;
+	private static final int SLOW = 2;
+	private static final int TOTAL = 3;
+	private static final int MIN = 4;
+	private static final int MAX = 5;
+
+	/**
+	 * Longs per stripe, so that two stripes never share a cache line.
+	 */
+	private static final int STRIDE = 8;
+
+	private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+
+	private final LoggableHelper loggableHelper;
+	private final Loggable.Level level;
+	private final Logger logger;
+	private final String methodName;
+	private final int precision;
+	private final long interval;
+	private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIDE);
+
+	/**
+	 * Create the summary of a call site.
+	 *
+	 * @param loggableHelper
+	 *            Helper used for the reports
+	 * @param level
+	 *            Level of the reports
+	 * @param logger
+	 *            Logger of the reports
+	 * @param methodName
+	 *            Name of the method
+	 * @param precision
+	 *            Number of fractional digits of the durations
+	 * @param interval
+	 *            Interval between two reports, in nanoseconds
+	 */
+	LoggableSummary(final LoggableHelper loggableHelper, final Loggable.Level level, final Logger logger,
+			final String methodName, final int precision, final long interval) {
+		this.loggableHelper = loggableHelper;
+		this.level = level;
+		this.logger = logger;
+		this.methodName = methodName;
+		this.precision = precision;
+		this.interval = interval;
+		for (int stripe = 0; stripe < STRIPES; ++stripe) {
+			counters.set(stripe * STRIDE + MIN, Long.MAX_VALUE);
+			counters.set(stripe * STRIDE + MAX, Long.MIN_VALUE);
+		}
+	}
+
+	/**
+	 * @return Interval between two reports, in nanoseconds
+	 */
+	long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Count a call that returned.
+	 *
+	 * @param nano
+	 *            Duration of the call
+	 * @param slow
+	 *            Did the call take longer than the limit?
+	 */
+	void record(final long nano, final boolean slow) {
+		final int base = stripe();
+		counters.incrementAndGet(base + CALLS);
+		if (slow) {
+			counters.incrementAndGet(base + SLOW);
+		}
+		this.time(base, nano);
+	}
+
+	/**
+	 * Count a call that threw an exception.
+	 *
+	 * @param nano
+	 *            Duration of the call
+	 */
+	void recordError(final long nano) {
+		final int base = stripe();
+		counters.incrementAndGet(base + CALLS);
+		counters.incrementAndGet(base + ERRORS);
+		this.time(base, nano);
+	}
+
+	/**
+	 * Log the calls since the previous report, if any.
+	 */
+	@Override
+	public void run() {
+		long calls = 0;
+		long errors = 0;
+		long slow = 0;
+		long total = 0;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int stripe = 0; stripe < STRIPES; ++stripe) {
+			final int base = stripe * STRIDE;
+			calls += counters.getAndSet(base + CALLS, 0L);
+			errors += counters.getAndSet(base + ERRORS, 0L);
+			slow += counters.getAndSet(base + SLOW, 0L);
+			total += counters.getAndSet(base + TOTAL, 0L);
+			min = Math.min(min, counters.getAndSet(base + MIN, Long.MAX_VALUE));
+			max = Math.max(max, counters.getAndSet(base + MAX, Long.MIN_VALUE));
+		}
+		if (calls > 0) {
+			loggableHelper.log(level, logger,
+					"#{}(): {} calls, {} errors, {} too slow in the last {}, avg {}, min {}, max {}", methodName,
+					calls, errors, slow, loggableHelper.toText(interval, 0), //
+					loggableHelper.toText(total / calls, precision), //
+					loggableHelper.toText(min == Long.MAX_VALUE ? 0L : min, precision), //
+					loggableHelper.toText(max == Long.MIN_VALUE ? 0L : max, precision));
+		}
+	}
+
+	private void time(final int base, final long nano) {
+		counters.addAndGet(base + TOTAL, nano);
+		long current = counters.get(base + MIN);
+		while (nano < current && !counters.compareAndSet(base + MIN, current, nano)) {
+			current = counters.get(base + MIN);
+		}
+		current = counters.get(base + MAX);
+		while (nano > current && !counters.compareAndSet(base + MAX, current, nano)) {
+			current = counters.get(base + MAX);
+		}
+	}
+
+	/**
+	 * @return Index of the first counter of the stripe of the current thread
+	 */
+	private static int stripe() {
+		return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIDE;
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.gb.guyom.utils.log;
+
+/**
+ * Lazy argument of a log line.
+ *
+ * <p>
+ * Log lines are emitted as constant patterns ({@code "{}: {} in {}"}) whose arguments are instances of this class.
+ * Rendering happens in {@link #toString()}, that is only when the logging framework formats the message, so nothing is
+ * rendered for an event dropped by a level, a turbo filter or an appender filter. The text is kept once rendered,
+ * several appenders share it.
+ *
+ * @version $Id$
+ */
+abstract class LoggableText {
+
+	private String text;
+
+	@Override
+	public final String toString() {
+		if (text == null) {
+			text = render();
+		}
+		return text;
+	}
+
+	/**
+	 * Render the text.
+	 *
+	 * @return The text
+	 */
+	protected abstract String render();
+
+	/**
+	 * The method call, with {@code this} and the arguments, replaced with dots if not captured.
+	 */
+	static final class Invocation extends LoggableText {
+
+		private final LoggableHelper loggableHelper;
+		private final LoggableCallSite callSite;
+		private final Object thiz;
+		private final Object[] args;
+
+		Invocation(final LoggableHelper loggableHelper, final LoggableCallSite callSite, final Object thiz,
+				final Object[] args) {
+			this.loggableHelper = loggableHelper;
+			this.callSite = callSite;
+			this.thiz = thiz;
+			this.args = args;
+		}
+
+		@Override
+		protected String render() {
+			return loggableHelper.toText(thiz, callSite.getMethodName(), args, callSite.getTrim(),
+					callSite.isSkipArgs() || args == null, callSite.isLogThis());
+		}
+
+	}
+
+	/**
+	 * The arguments of a call.
+	 */
+	static final class Arguments extends LoggableText {
+
+		private final LoggableHelper loggableHelper;
+		private final LoggableCallSite callSite;
+		private final Object[] args;
+
+		Arguments(final LoggableHelper loggableHelper, final LoggableCallSite callSite, final Object[] args) {
+			this.loggableHelper = loggableHelper;
+			this.callSite = callSite;
+			this.args = args;
+		}
+
+		@Override
+		protected String render() {
+			final StringBuilder out = LoggableBuffer.acquire();
+			loggableHelper.appendArguments(out, args, callSite.getTrim(), false);
+			return LoggableBuffer.release(out);
+		}
+
+	}
+
+	/**
+	 * The result of a call.
+	 */
+	static final class Result extends LoggableText {
+
+		private final LoggableHelper loggableHelper;
+		private final LoggableCallSite callSite;
+		private final Object result;
+
+		Result(final LoggableHelper loggableHelper, final LoggableCallSite callSite, final Object result) {
+			this.loggableHelper = loggableHelper;
+			this.callSite = callSite;
+			this.result = result;
+		}
+
+		@Override
+		protected String render() {
+			return loggableHelper.toText(result, callSite.getTrim(), callSite.isSkipResult());
+		}
+
+	}
+
+	/**
+	 * The duration of a call, with its CPU time and bytes allocated if measured, and its call tree if aggregated.
+	 */
+	static final class Duration extends LoggableText {
+
+		private final LoggableHelper loggableHelper;
+		private final long nano;
+		private final int precision;
+		private final LoggableUsage usage;
+		private final LoggableTree.Node tree;
+
+		Duration(final LoggableHelper loggableHelper, final long nano, final int precision, final LoggableUsage usage,
+				final LoggableTree.Node tree) {
+			this.loggableHelper = loggableHelper;
+			this.nano = nano;
+			this.precision = precision;
+			this.usage = usage;
+			this.tree = tree;
+		}
+
+		@Override
+		protected String render() {
+			return usage == null && tree == null ? loggableHelper.toText(nano, precision) : loggableHelper.toText(
+					nano, precision, usage, tree);
+		}
+
+	}
+
+	/**
+	 * An exception, with its message.
+	 */
+	static final class Thrown extends LoggableText {
+
+		private final LoggableHelper loggableHelper;
+		private final Throwable exp;
+
+		Thrown(final LoggableHelper loggableHelper, final Throwable exp) {
+			this.loggableHelper = loggableHelper;
+			this.exp = exp;
+		}
+
+		@Override
+		protected String render() {
+			return loggableHelper.toText(exp);
+		}
+
+	}
+
+	/**
+	 * The place an exception was thrown from.
+	 *
+	 * <p>
+	 * The stack trace is only read (and copied by {@code getStackTrace()}) if the line is rendered. Exceptions created
+	 * without a stack trace are rendered as {@code <unknown>}.
+	 */
+	static final class ThrowSite extends LoggableText {
+
+		private static final String UNKNOWN = "<unknown>";
+
+		private final Throwable exp;
+
+		ThrowSite(final Throwable exp) {
+			this.exp = exp;
+		}
+
+		@Override
+		protected String render() {
+			final StackTraceElement[] traces = exp.getStackTrace();
+			final String text;
+			if (traces.length == 0) {
+				text = UNKNOWN;
+			}
+			else {
+				final StringBuilder builder = LoggableBuffer.acquire();
+				builder.append(traces[0].getClassName()).append('#').append(traces[0].getMethodName()).append('[')
+						.append(traces[0].getLineNumber()).append(']');
+				text = LoggableBuffer.release(builder);
+			}
+			return text;
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Adaptive "too slow" threshold of a {@link Loggable#adaptive()} call site.
+ *
+ * <p>
+ * Durations are recorded into a {@link LoggableHistogram}, used as a compact streaming quantile sketch. The threshold
+ * is the configured percentile of the recent calls times a factor. The sketch rolls over every {@link #WINDOW} calls,
+ * the previous window being kept as long as the current one is too small to be trusted.
+ *
+ * <p>
+ * No call is flagged during warm-up, that is until the call site has seen {@link Loggable#warmup()} calls and until
+ * {@link Loggable#warmupSeconds()} have elapsed since the JVM started, so that JIT compilation and cold caches do not
+ * flood the logs on every deploy.
+ *
+ * <p>
+ * The threshold is recomputed on a random sample of the calls (one in {@link #RECOMPUTE}), so there is no shared
+ * counter on the hot path.
+ *
+ * @version $Id$
+ */
+final class LoggableThreshold {
+
+	private static final long WINDOW = 100000L;
+	private static final long MINIMUM = 100L;
+	private static final int RECOMPUTE = 1024;
+	private static final int RECOMPUTE_WARMING = 16;
+
+	private final double percentile;
+	private final double factor;
+	private final long warmup;
+	private final long warmupEnd;
+
+	private final AtomicReference<LoggableHistogram> current = new AtomicReference<LoggableHistogram>(
+			new LoggableHistogram());
+	private volatile LoggableHistogram.Snapshot previous;
+	private volatile long seen;
+	private volatile long threshold = Long.MAX_VALUE;
+
+	/**
+	 * Create the threshold of a call site.
+	 *
+	 * @param percentile
+	 *            The percentile, between 0 and 1
+	 * @param factor
+	 *            Factor applied to the percentile
+	 * @param warmup
+	 *            Number of calls never flagged
+	 * @param warmupSeconds
+	 *            Time after JVM start during which calls are never flagged
+	 */
+	LoggableThreshold(final double percentile, final double factor, final long warmup, final long warmupSeconds) {
+		this.percentile = percentile;
+		this.factor = factor;
+		this.warmup = Math.max(warmup, MINIMUM);
+		final long uptime = TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+		this.warmupEnd = System.nanoTime() + Math.max(TimeUnit.SECONDS.toNanos(warmupSeconds) - uptime, 0L);
+	}
+
+	/**
+	 * Record a call and tell whether it was too slow.
+	 *
+	 * @param nano
+	 *            Duration of the call
+	 * @return TRUE if it was slower than the threshold
+	 */
+	boolean isSlow(final long nano) {
+		current.get().record(nano);
+		final long limit = threshold;
+		if (ThreadLocalRandom.current().nextInt(limit == Long.MAX_VALUE ? RECOMPUTE_WARMING : RECOMPUTE) == 0) {
+			recompute();
+		}
+		return nano > limit;
+	}
+
+	/**
+	 * @return The current threshold in nanoseconds, {@code Long.MAX_VALUE} during warm-up
+	 */
+	long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Roll the window over if it is full, and compute the threshold again.
+	 */
+	void recompute() {
+		final LoggableHistogram histogram = current.get();
+		LoggableHistogram.Snapshot snapshot = histogram.snapshot();
+		if (snapshot.getCount() >= WINDOW && current.compareAndSet(histogram, new LoggableHistogram())) {
+			seen += snapshot.getCount();
+			previous = snapshot;
+		}
+
+		final long total = seen + (snapshot.getCount() >= WINDOW ? 0 : snapshot.getCount());
+		if (total >= warmup && System.nanoTime() - warmupEnd >= 0) {
+			if (snapshot.getCount() < MINIMUM && previous != null) {
+				snapshot = previous;
+			}
+			threshold = (long) Math.min(snapshot.getPercentile(percentile) * factor, Long.MAX_VALUE - 1);
+		}
+	}
+
+}
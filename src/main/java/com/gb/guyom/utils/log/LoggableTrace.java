@@ -0,0 +1,314 @@
+package com.gb.guyom.utils.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary trace of every advised call, in a memory-mapped ring file, decoded offline by {@link LoggableTraceDecoder}.
+ *
+ * <p>
+ * It is enabled by the {@code loggable.trace} system property, naming the file, and configured with:
+ * <ul>
+ * <li>{@code loggable.trace.chunks}: number of chunks of the ring (default 16384)</li>
+ * <li>{@code loggable.trace.chunk}: size of a chunk in bytes (default 4 KB)</li>
+ * <li>{@code loggable.trace.dictionary}: size of the dictionary in bytes (default 1 MB)</li>
+ * </ul>
+ *
+ * <p>
+ * The file starts with a header, then a dictionary of the names of the call sites and of the exception classes, each
+ * written once when first seen, then the chunks. A thread writes its records into the chunk it claimed, without any
+ * lock, and claims the next chunk of the ring when it is full, overwriting the oldest one. A record is
+ * {@value #RECORD} bytes: call site id, exception class id, start, duration, thread id and {@link LoggableEvent.Outcome
+ * outcome}. A chunk header holds the sequence number of the claim and the number of records written, updated after
+ * every record, and the dictionary holds its length, updated after every name: since the pages of the file belong to
+ * the operating system, what was written before a crash of the JVM can be decoded.
+ *
+ * <p>
+ * A chunk is claimed again once all the others were claimed since. If more threads write than there are chunks, the
+ * ring wraps before they fill the chunks they hold, and the latest records of some of them are overwritten: chunks are
+ * therefore small and many. A chunk taken over while its thread still writes into it is counted, and reported once
+ * as a warning.
+ *
+ * @version $Id$
+ */
+final class LoggableTrace {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableTrace.class);
+
+	/**
+	 * "LGBLTRC1".
+	 */
+	static final long MAGIC = 0x4C47424C54524331L;
+	static final int VERSION = 1;
+
+	static final int HEADER = 4096;
+	static final int CHUNK_HEADER = 64;
+	static final int RECORD = 32;
+
+	static final byte CALL_SITE = 'C';
+	static final byte EXCEPTION = 'E';
+
+	// header
+	static final int H_MAGIC = 0;
+	static final int H_VERSION = 8;
+	static final int H_CHUNKS = 12;
+	static final int H_CHUNK_SIZE = 16;
+	static final int H_DICTIONARY_SIZE = 20;
+	static final int H_DICTIONARY_LENGTH = 24;
+	static final int H_BASE_MILLIS = 32;
+	static final int H_BASE_NANOS = 40;
+
+	// chunk header
+	static final int C_SEQUENCE = 0;
+	static final int C_THREAD = 8;
+	static final int C_COUNT = 16;
+
+	// record
+	static final int R_CALL_SITE = 0;
+	static final int R_EXCEPTION = 4;
+	static final int R_START = 8;
+	static final int R_DURATION = 16;
+	static final int R_THREAD = 24;
+	static final int R_OUTCOME = 28;
+
+	private static final LoggableTrace INSTANCE = open(System.getProperty("loggable.trace"));
+
+	private final MappedByteBuffer buffer;
+	private final int chunks;
+	private final int chunkSize;
+	private final int dictionarySize;
+	private final long baseNanos;
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicLong overruns = new AtomicLong();
+	private int dictionaryLength;
+	private int names;
+
+	private final ThreadLocal<Writer> writers = new ThreadLocal<Writer>() {
+		@Override
+		protected Writer initialValue() {
+			return new Writer();
+		}
+	};
+
+	private final ClassValue<Integer> exceptions = new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(final Class<?> type) {
+			return define(EXCEPTION, type.getName());
+		}
+	};
+
+	/**
+	 * Create the file and map it.
+	 *
+	 * @param file
+	 *            The file, overwritten
+	 * @param chunks
+	 *            Number of chunks
+	 * @param chunkSize
+	 *            Size of a chunk in bytes
+	 * @param dictionarySize
+	 *            Size of the dictionary in bytes
+	 * @throws IOException
+	 *             If the file cannot be mapped
+	 */
+	LoggableTrace(final Path file, final int chunks, final int chunkSize, final int dictionarySize)
+			throws IOException {
+		final long size = (long) HEADER + dictionarySize + (long) chunks * chunkSize;
+		if (size > Integer.MAX_VALUE || chunkSize < CHUNK_HEADER + RECORD) {
+			throw new IllegalArgumentException("Invalid trace size: " + chunks + " chunks of " + chunkSize + " bytes");
+		}
+		this.chunks = chunks;
+		this.chunkSize = chunkSize;
+		this.dictionarySize = dictionarySize;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		this.baseNanos = System.nanoTime();
+		buffer.putInt(H_VERSION, VERSION);
+		buffer.putInt(H_CHUNKS, chunks);
+		buffer.putInt(H_CHUNK_SIZE, chunkSize);
+		buffer.putInt(H_DICTIONARY_SIZE, dictionarySize);
+		buffer.putInt(H_DICTIONARY_LENGTH, 0);
+		buffer.putLong(H_BASE_MILLIS, System.currentTimeMillis());
+		buffer.putLong(H_BASE_NANOS, baseNanos);
+		buffer.putLong(H_MAGIC, MAGIC);
+	}
+
+	/**
+	 * @return The trace, null if not enabled
+	 */
+	static LoggableTrace get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Give an id to a call site, written in the dictionary.
+	 *
+	 * @param callSite
+	 *            The plan of the call site
+	 * @return The id
+	 */
+	int define(final LoggableCallSite callSite) {
+		return this.define(CALL_SITE, callSite.getClassName() + '#' + callSite.getMethodName());
+	}
+
+	/**
+	 * Record a call.
+	 *
+	 * @param callSite
+	 *            The id of the call site
+	 * @param start
+	 *            When the call started
+	 * @param nano
+	 *            Duration of the call
+	 * @param exp
+	 *            The exception thrown, null if none
+	 */
+	void record(final int callSite, final long start, final long nano, final Throwable exp) {
+		final Writer writer = writers.get();
+		final int position = writer.next();
+		final ByteBuffer out = writer.out;
+		out.putInt(position + R_CALL_SITE, callSite);
+		out.putInt(position + R_EXCEPTION, exp == null ? 0 : exceptions.get(exp.getClass()));
+		out.putLong(position + R_START, start - baseNanos);
+		out.putLong(position + R_DURATION, nano);
+		out.putInt(position + R_THREAD, (int) writer.thread);
+		out.put(position + R_OUTCOME, (byte) (exp == null ? LoggableEvent.Outcome.RETURNED
+				: LoggableEvent.Outcome.THROWN).ordinal());
+		writer.commit();
+	}
+
+	/**
+	 * @return Number of chunks taken over while their thread was writing into them
+	 */
+	long getOverruns() {
+		return overruns.get();
+	}
+
+	/**
+	 * Write what is mapped to the disk.
+	 */
+	void force() {
+		buffer.force();
+	}
+
+	/**
+	 * Write a name into the dictionary, once.
+	 *
+	 * @param kind
+	 *            {@link #CALL_SITE} or {@link #EXCEPTION}
+	 * @param name
+	 *            The name
+	 * @return Its id, 0 if the dictionary is full
+	 */
+	private synchronized int define(final byte kind, final String name) {
+		final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		final int length = 1 + 4 + 2 + bytes.length;
+		int id = 0;
+		if (dictionaryLength + length <= dictionarySize && bytes.length <= Short.MAX_VALUE) {
+			id = ++names;
+			final ByteBuffer out = buffer.duplicate();
+			out.position(HEADER + dictionaryLength);
+			out.put(kind).putInt(id).putShort((short) bytes.length).put(bytes);
+			dictionaryLength += length;
+			buffer.putInt(H_DICTIONARY_LENGTH, dictionaryLength);
+		}
+		else {
+			LOGGER.warn("Trace dictionary full, {} not recorded", name);
+		}
+		return id;
+	}
+
+	/**
+	 * Open the trace configured by the system properties.
+	 *
+	 * @param file
+	 *            The file, null if not enabled
+	 * @return The trace, null if not enabled
+	 */
+	private static LoggableTrace open(final String file) {
+		LoggableTrace trace = null;
+		if (file != null) {
+			try {
+				trace = new LoggableTrace(Paths.get(file), Integer.getInteger("loggable.trace.chunks", 1 << 14),
+						Integer.getInteger("loggable.trace.chunk", 1 << 12), Integer.getInteger(
+								"loggable.trace.dictionary", 1 << 20));
+				final LoggableTrace opened = trace;
+				Runtime.getRuntime().addShutdownHook(new Thread("loggable-trace-force") {
+					@Override
+					public void run() {
+						opened.force();
+					}
+				});
+			}
+			catch (final IOException | IllegalArgumentException ex) {
+				LOGGER.error("Unable to trace into {}", file, ex);
+			}
+		}
+		return trace;
+	}
+
+	/**
+	 * The chunk a thread writes into.
+	 */
+	private final class Writer {
+
+		private final ByteBuffer out = buffer.duplicate();
+		private final long thread = Thread.currentThread().getId();
+		private final int capacity = (chunkSize - CHUNK_HEADER) / RECORD;
+		private long claimed;
+		private int base;
+		private int count = capacity;
+
+		/**
+		 * @return Position of the next record, in a new chunk if the current one is full or was taken over
+		 */
+		int next() {
+			if (count == capacity) {
+				this.claim();
+			}
+			else if (out.getLong(base + C_SEQUENCE) != claimed) {
+				this.overrun();
+				this.claim();
+			}
+			return base + CHUNK_HEADER + count * RECORD;
+		}
+
+		/**
+		 * Count the record just written.
+		 */
+		void commit() {
+			out.putInt(base + C_COUNT, ++count);
+		}
+
+		private void overrun() {
+			if (overruns.incrementAndGet() == 1L) {
+				LOGGER.warn("Trace chunk of thread {} taken over before it was full: more threads write than the ring"
+						+ " holds chunks, raise loggable.trace.chunks or lower loggable.trace.chunk", thread);
+			}
+		}
+
+		private void claim() {
+			claimed = sequence.incrementAndGet();
+			base = HEADER + dictionarySize + (int) ((claimed - 1) % chunks) * chunkSize;
+			count = 0;
+			out.putLong(base + C_SEQUENCE, 0L);
+			out.putInt(base + C_COUNT, 0);
+			out.putLong(base + C_THREAD, thread);
+			out.putLong(base + C_SEQUENCE, claimed);
+		}
+
+	}
+
+}
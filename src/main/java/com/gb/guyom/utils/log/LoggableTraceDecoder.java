@@ -0,0 +1,243 @@
+package com.gb.guyom.utils.log;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line decoder of the files written with the {@code loggable.trace} system property, see
+ * {@link LoggableTrace}.
+ *
+ * <pre>
+ * java -cp ... com.gb.guyom.utils.log.LoggableTraceDecoder [text|csv|stats] trace.bin
+ * </pre>
+ *
+ * <p>
+ * {@code text} (the default) writes a line per call, {@code csv} the same as comma separated values, and
+ * {@code stats} a line per method with its number of calls, errors and its total, average, minimum and maximum
+ * durations, the slowest in total first. Calls are written chunk by chunk, in the order the chunks were claimed; a file
+ * left by a crashed JVM is decoded up to its last record.
+ *
+ * @version $Id$
+ */
+public final class LoggableTraceDecoder {
+
+	/**
+	 * Output formats.
+	 */
+	public enum Format {
+		TEXT, CSV, STATS
+	}
+
+	private final LoggableHelper loggableHelper = new LoggableHelper();
+	private final ByteBuffer buffer;
+	private final Map<Integer, String> callSites = new HashMap<Integer, String>();
+	private final Map<Integer, String> exceptions = new HashMap<Integer, String>();
+	private final long baseMillis;
+	private final int chunks;
+	private final int chunkSize;
+	private final int dictionarySize;
+
+	/**
+	 * Read a file.
+	 *
+	 * @param file
+	 *            The file
+	 * @throws IOException
+	 *             If it cannot be read, or is not a trace
+	 */
+	public LoggableTraceDecoder(final Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.capacity() < LoggableTrace.HEADER || buffer.getLong(LoggableTrace.H_MAGIC) != LoggableTrace.MAGIC) {
+			throw new IOException("Not a trace: " + file);
+		}
+		if (buffer.getInt(LoggableTrace.H_VERSION) != LoggableTrace.VERSION) {
+			throw new IOException("Unsupported trace version " + buffer.getInt(LoggableTrace.H_VERSION) + ": " + file);
+		}
+		this.chunks = buffer.getInt(LoggableTrace.H_CHUNKS);
+		this.chunkSize = buffer.getInt(LoggableTrace.H_CHUNK_SIZE);
+		this.dictionarySize = buffer.getInt(LoggableTrace.H_DICTIONARY_SIZE);
+		this.baseMillis = buffer.getLong(LoggableTrace.H_BASE_MILLIS);
+		this.readDictionary(Math.min(buffer.getInt(LoggableTrace.H_DICTIONARY_LENGTH), dictionarySize));
+	}
+
+	/**
+	 * Decode a file.
+	 *
+	 * @param args
+	 *            The format, optional, then the file
+	 * @throws IOException
+	 *             If the file cannot be read
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 0 || args.length > 2) {
+			System.err.println("Usage: LoggableTraceDecoder [text|csv|stats] <file>");
+			System.exit(2);
+		}
+		final Format format = args.length == 2 ? Format.valueOf(args[0].toUpperCase(Locale.ENGLISH)) : Format.TEXT;
+		new LoggableTraceDecoder(Paths.get(args[args.length - 1])).decode(format, System.out);
+	}
+
+	/**
+	 * Write the calls of the file.
+	 *
+	 * @param format
+	 *            The format
+	 * @param out
+	 *            Where to write
+	 */
+	public void decode(final Format format, final PrintStream out) {
+		final Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+		if (format == Format.CSV) {
+			out.println("start,thread,method,durationNanos,outcome,exception");
+		}
+		for (final int base : this.chunks()) {
+			final int count = Math.min(buffer.getInt(base + LoggableTrace.C_COUNT),
+					(chunkSize - LoggableTrace.CHUNK_HEADER) / LoggableTrace.RECORD);
+			for (int pos = 0; pos < count; ++pos) {
+				final int record = base + LoggableTrace.CHUNK_HEADER + pos * LoggableTrace.RECORD;
+				final String method = name(callSites, buffer.getInt(record + LoggableTrace.R_CALL_SITE));
+				final int exception = buffer.getInt(record + LoggableTrace.R_EXCEPTION);
+				final long duration = buffer.getLong(record + LoggableTrace.R_DURATION);
+				final int code = buffer.get(record + LoggableTrace.R_OUTCOME);
+				if (code < 0 || code >= LoggableEvent.Outcome.values().length) {
+					// torn by a crash
+					continue;
+				}
+				final LoggableEvent.Outcome outcome = LoggableEvent.Outcome.values()[code];
+				switch (format) {
+				case STATS:
+					Stats stat = stats.get(method);
+					if (stat == null) {
+						stat = new Stats(method);
+						stats.put(method, stat);
+					}
+					stat.add(duration, outcome == LoggableEvent.Outcome.THROWN);
+					break;
+				case CSV:
+					out.println(this.start(record) + "," + buffer.getInt(record + LoggableTrace.R_THREAD) + ","
+							+ method + "," + duration + "," + outcome + ","
+							+ (exception == 0 ? "" : name(exceptions, exception)));
+					break;
+				default:
+					out.println(this.start(record) + " [" + buffer.getInt(record + LoggableTrace.R_THREAD) + "] "
+							+ method + " " + outcome + (exception == 0 ? "" : " " + name(exceptions, exception))
+							+ " in " + loggableHelper.toText(duration, 2));
+					break;
+				}
+			}
+		}
+		if (format == Format.STATS) {
+			final List<Stats> sorted = new ArrayList<Stats>(stats.values());
+			Collections.sort(sorted, new Comparator<Stats>() {
+				@Override
+				public int compare(final Stats left, final Stats right) {
+					return Long.compare(right.total, left.total);
+				}
+			});
+			for (final Stats stat : sorted) {
+				out.println(stat.method + ": " + stat.count + " calls, " + stat.errors + " errors, total "
+						+ loggableHelper.toText(stat.total, 2) + ", avg "
+						+ loggableHelper.toText(stat.total / stat.count, 2) + ", min "
+						+ loggableHelper.toText(stat.min, 2) + ", max " + loggableHelper.toText(stat.max, 2));
+			}
+		}
+	}
+
+	/**
+	 * @return Offsets of the chunks written, in the order they were claimed
+	 */
+	private List<Integer> chunks() {
+		final List<long[]> claimed = new ArrayList<long[]>();
+		for (int index = 0; index < chunks; ++index) {
+			final int base = LoggableTrace.HEADER + dictionarySize + index * chunkSize;
+			if (base + chunkSize <= buffer.capacity() && buffer.getLong(base + LoggableTrace.C_SEQUENCE) > 0) {
+				claimed.add(new long[] { buffer.getLong(base + LoggableTrace.C_SEQUENCE), base });
+			}
+		}
+		Collections.sort(claimed, new Comparator<long[]>() {
+			@Override
+			public int compare(final long[] left, final long[] right) {
+				return Long.compare(left[0], right[0]);
+			}
+		});
+		final List<Integer> bases = new ArrayList<Integer>(claimed.size());
+		for (final long[] chunk : claimed) {
+			bases.add((int) chunk[1]);
+		}
+		return bases;
+	}
+
+	private void readDictionary(final int length) {
+		final ByteBuffer in = buffer.duplicate();
+		in.position(LoggableTrace.HEADER);
+		final int end = LoggableTrace.HEADER + length;
+		while (in.position() + 7 <= end) {
+			final byte kind = in.get();
+			final int id = in.getInt();
+			final short size = in.getShort();
+			if (size < 0 || in.position() + size > end) {
+				break;
+			}
+			final byte[] bytes = new byte[size];
+			in.get(bytes);
+			(kind == LoggableTrace.CALL_SITE ? callSites : exceptions).put(id, new String(bytes,
+					StandardCharsets.UTF_8));
+		}
+	}
+
+	private String start(final int record) {
+		final long nanos = buffer.getLong(record + LoggableTrace.R_START);
+		return Instant.ofEpochMilli(baseMillis).plusNanos(nanos).toString();
+	}
+
+	private static String name(final Map<Integer, String> names, final int id) {
+		final String name = names.get(id);
+		return name == null ? "#" + id : name;
+	}
+
+	/**
+	 * Statistics of a method.
+	 */
+	private static final class Stats {
+
+		private final String method;
+		private long count;
+		private long errors;
+		private long total;
+		private long min = Long.MAX_VALUE;
+		private long max;
+
+		Stats(final String method) {
+			this.method = method;
+		}
+
+		void add(final long duration, final boolean error) {
+			++count;
+			if (error) {
+				++errors;
+			}
+			total += duration;
+			min = Math.min(min, duration);
+			max = Math.max(max, duration);
+		}
+
+	}
+
+}
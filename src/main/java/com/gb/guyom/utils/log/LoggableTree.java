@@ -0,0 +1,215 @@
+package com.gb.guyom.utils.log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Advised calls in progress on a thread under a {@link Loggable#tree()} call, aggregated into a call tree.
+ *
+ * <p>
+ * Every advised call made during the outermost one becomes a node of its tree instead of a log line of its own. The
+ * calls of the same method under the same node are collapsed into a single node, with their count and their total
+ * time, so that a loop over a DAO costs one node and not one per iteration. The tree is logged with the line of the
+ * outermost call, each node with its time and the time spent in the node itself, outside its children:
+ *
+ * <pre>
+ * #handle('x'): 'ok' in 412ms {self 12ms: findById ×120 Σ340ms, render 60ms {self 20ms: format ×3 Σ40ms}}
+ * </pre>
+ *
+ * <p>
+ * Nodes are timed until their method returns, even if it returns a {@code CompletionStage}. Nested calls are not
+ * admitted for logging, their entries and their returns being part of the tree, but they are still recorded as any
+ * other call: their {@link Loggable#summary()}, their slow returns and the exceptions thrown out of them are logged on
+ * their own.
+ *
+ * @version $Id$
+ */
+final class LoggableTree {
+
+	private static final ThreadLocal<LoggableTree> TREES = new ThreadLocal<LoggableTree>() {
+		@Override
+		protected LoggableTree initialValue() {
+			return new LoggableTree();
+		}
+	};
+
+	/**
+	 * Is there any {@link Loggable#tree()} call site? Until there is, calls do not look at their thread.
+	 */
+	private static volatile boolean used;
+
+	private Node[] stack = new Node[16];
+	private int depth;
+
+	private LoggableTree() {
+	}
+
+	/**
+	 * Declare a {@link Loggable#tree()} call site.
+	 */
+	static void use() {
+		used = true;
+	}
+
+	/**
+	 * Enter a call, as the root of a tree if its call site asks for one, as a node if a tree is in progress.
+	 *
+	 * @param callSite
+	 *            The plan of the call site
+	 */
+	static void enter(final LoggableCallSite callSite) {
+		if (used) {
+			final LoggableTree tree = TREES.get();
+			if (tree.depth > 0) {
+				tree.push(tree.stack[tree.depth - 1].child(callSite));
+			}
+			else if (callSite.isTree()) {
+				tree.push(new Node(callSite));
+			}
+		}
+	}
+
+	/**
+	 * Is a call made now nested in a tree?
+	 *
+	 * @return TRUE if a tree is in progress on the thread
+	 */
+	static boolean isNested() {
+		return used && TREES.get().depth > 0;
+	}
+
+	/**
+	 * The tree a call is part of, when it ends.
+	 *
+	 * @param callSite
+	 *            The plan of the call site
+	 * @return The tree of the thread, null if the call is not in a tree
+	 */
+	static LoggableTree of(final LoggableCallSite callSite) {
+		LoggableTree tree = null;
+		if (used) {
+			tree = TREES.get();
+			if (tree.depth == 0 || tree.stack[tree.depth - 1].callSite != callSite) {
+				tree = null;
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Leave the current call.
+	 *
+	 * @param nano
+	 *            Duration of the call
+	 * @return The root of the tree if it was the outermost call, null if it was a nested one
+	 */
+	Node exit(final long nano) {
+		final Node node = stack[--depth];
+		stack[depth] = null;
+		node.count++;
+		node.total += nano;
+		return depth == 0 ? node : null;
+	}
+
+	private void push(final Node node) {
+		if (depth == stack.length) {
+			final Node[] grown = new Node[depth * 2];
+			System.arraycopy(stack, 0, grown, 0, depth);
+			stack = grown;
+		}
+		stack[depth++] = node;
+	}
+
+	/**
+	 * The calls of a method under the same parent.
+	 */
+	static final class Node {
+
+		private final LoggableCallSite callSite;
+		private int count;
+		private long total;
+		private List<Node> children;
+
+		Node(final LoggableCallSite callSite) {
+			this.callSite = callSite;
+		}
+
+		/**
+		 * The node of a method called from this one, created on its first call.
+		 *
+		 * @param site
+		 *            The plan of the called method
+		 * @return The node
+		 */
+		Node child(final LoggableCallSite site) {
+			if (children == null) {
+				children = new ArrayList<Node>(4);
+			}
+			for (final Node child : children) {
+				if (child.callSite == site) {
+					return child;
+				}
+			}
+			final Node child = new Node(site);
+			children.add(child);
+			return child;
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return Total time of the calls, in nanoseconds
+		 */
+		long getTotal() {
+			return total;
+		}
+
+		/**
+		 * @return Time spent in the calls outside of their children, in nanoseconds
+		 */
+		long getSelf() {
+			long self = total;
+			if (children != null) {
+				for (final Node child : children) {
+					self -= child.total;
+				}
+			}
+			return self;
+		}
+
+		/**
+		 * Append the children of the node, as {@code " {self 12ms: find ×3 Σ4ms, save 8ms}"}.
+		 *
+		 * @param helper
+		 *            The helper
+		 * @param out
+		 *            Where to append
+		 * @param precision
+		 *            Number of fractional digits of the times
+		 */
+		void appendChildren(final LoggableHelper helper, final StringBuilder out, final int precision) {
+			if (children != null) {
+				out.append(" {self ");
+				helper.appendDuration(out, this.getSelf(), precision);
+				out.append(':');
+				for (int pos = 0; pos < children.size(); ++pos) {
+					final Node child = children.get(pos);
+					out.append(pos == 0 ? " " : ", ").append(child.callSite.getMethodName());
+					if (child.count > 1) {
+						out.append(" ×").append(child.count).append(" Σ");
+					}
+					else {
+						out.append(' ');
+					}
+					helper.appendDuration(out, child.total, precision);
+					child.appendChildren(helper, out, precision);
+				}
+				out.append('}');
+			}
+		}
+
+	}
+
+}
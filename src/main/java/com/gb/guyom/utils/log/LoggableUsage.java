@@ -0,0 +1,137 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CPU time and bytes allocated by the current thread, for {@link Loggable#cpu()} and {@link Loggable#allocated()}.
+ *
+ * <p>
+ * A usage is first taken as the counters of the thread when the call starts, then as the difference with them when
+ * it ends. A counter not requested, or not supported by the JVM, is -1. The bytes allocated come from the HotSpot
+ * {@code com.sun.management.ThreadMXBean}; the counters are enabled on first use if the JVM supports them.
+ *
+ * @version $Id$
+ */
+final class LoggableUsage {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableUsage.class);
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private static final boolean CPU = enableCpu();
+
+	private static final boolean ALLOCATED = enableAllocated();
+
+	private final long cpu;
+	private final long allocated;
+
+	private LoggableUsage(final long cpu, final long allocated) {
+		this.cpu = cpu;
+		this.allocated = allocated;
+	}
+
+	/**
+	 * Take the counters of the current thread, when a call starts.
+	 *
+	 * @param cpu
+	 *            Measure the CPU time?
+	 * @param allocated
+	 *            Measure the bytes allocated?
+	 * @return The counters
+	 */
+	static LoggableUsage start(final boolean cpu, final boolean allocated) {
+		return new LoggableUsage(cpu ? cpu() : -1L, allocated ? allocated() : -1L);
+	}
+
+	/**
+	 * What the current thread used since the counters were taken, when the call ends.
+	 *
+	 * @return The usage of the call
+	 */
+	LoggableUsage since() {
+		return new LoggableUsage(cpu < 0 ? -1L : cpu() - cpu, allocated < 0 ? -1L : allocated() - allocated);
+	}
+
+	/**
+	 * @return CPU time in nanoseconds, -1 if not measured
+	 */
+	long getCpu() {
+		return cpu;
+	}
+
+	/**
+	 * @return Bytes allocated, -1 if not measured
+	 */
+	long getAllocated() {
+		return allocated;
+	}
+
+	private static long cpu() {
+		return CPU ? THREADS.getCurrentThreadCpuTime() : -1L;
+	}
+
+	private static long allocated() {
+		return ALLOCATED ? Allocations.get() : -1L;
+	}
+
+	private static boolean enableCpu() {
+		boolean enabled = false;
+		try {
+			if (THREADS.isCurrentThreadCpuTimeSupported()) {
+				if (!THREADS.isThreadCpuTimeEnabled()) {
+					THREADS.setThreadCpuTimeEnabled(true);
+				}
+				enabled = true;
+			}
+		}
+		catch (final UnsupportedOperationException | SecurityException ex) {
+			LOGGER.warn("Unable to measure the CPU time of threads", ex);
+		}
+		return enabled;
+	}
+
+	private static boolean enableAllocated() {
+		boolean enabled = false;
+		try {
+			enabled = Allocations.enable();
+		}
+		catch (final LinkageError | UnsupportedOperationException | SecurityException ex) {
+			LOGGER.warn("Unable to measure the bytes allocated by threads", ex);
+		}
+		return enabled;
+	}
+
+	/**
+	 * Access to the HotSpot extension, loaded only once checked.
+	 */
+	private static final class Allocations {
+
+		private Allocations() {
+		}
+
+		static boolean enable() {
+			boolean enabled = false;
+			if (THREADS instanceof com.sun.management.ThreadMXBean) {
+				final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+				if (threads.isThreadAllocatedMemorySupported()) {
+					if (!threads.isThreadAllocatedMemoryEnabled()) {
+						threads.setThreadAllocatedMemoryEnabled(true);
+					}
+					enabled = true;
+				}
+			}
+			return enabled;
+		}
+
+		static long get() {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread()
+					.getId());
+		}
+
+	}
+
+}
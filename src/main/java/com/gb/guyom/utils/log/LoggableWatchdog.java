@@ -0,0 +1,261 @@
+package com.gb.guyom.utils.log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls of {@link Loggable#watchdog()} call sites still running past their limit, logged while they run.
+ *
+ * <p>
+ * Every call is registered into a hashed timer wheel when it starts and cancelled when it ends. A call still running
+ * when its limit expires is logged at WARN, with the name and the current stack of its thread:
+ *
+ * <pre>
+ * #read(): still running after 10.02s in thread http-nio-8080-exec-3, over the limit of 10.00s
+ *     at java.net.SocketInputStream.socketRead0(Native Method)
+ *     ...
+ * </pre>
+ *
+ * <p>
+ * Its line is logged as usual once it ends, with its whole duration.
+ *
+ * <p>
+ * Registering and cancelling a call take no lock: a call is handed over to the wheel through a concurrent queue, and
+ * cancelling only flips a flag, the entry being dropped by the wheel when it reaches it. So that a call that ended does
+ * not stay in the wheel until its limit, a call is not placed at its limit at once but at checkpoints, each one as far
+ * as the call has already run: a call is checked after 1, 2, 4, 8... ticks, then at its limit. A cancelled call is
+ * thus dropped after at most as long as it ran, and the wheel holds about twice the calls in flight, whatever their
+ * limit. The wheel is only read and written by its own thread, which moves every {@code loggable.watchdog.tick}
+ * milliseconds (system property, default 10) to the next of its {@code loggable.watchdog.wheel} buckets (default
+ * 512). A call is thus reported within a tick after its limit.
+ *
+ * @version $Id$
+ */
+final class LoggableWatchdog implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoggableWatchdog.class);
+
+	private final LoggableHelper loggableHelper;
+	private final long tick;
+	private final Watch[] wheel;
+	private final int mask;
+	private final Queue<Watch> pending = new ConcurrentLinkedQueue<Watch>();
+	private final long origin = System.nanoTime();
+	private long ticks;
+	private int watched;
+
+	/**
+	 * Create a wheel.
+	 *
+	 * @param loggableHelper
+	 *            Helper used for the reports
+	 * @param tick
+	 *            Duration of a tick, in nanoseconds
+	 * @param size
+	 *            Number of buckets, rounded up to a power of two
+	 */
+	LoggableWatchdog(final LoggableHelper loggableHelper, final long tick, final int size) {
+		final int capacity = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+		this.loggableHelper = loggableHelper;
+		this.tick = tick;
+		this.wheel = new Watch[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @return The wheel, started on first use
+	 */
+	static LoggableWatchdog get() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Watch a call.
+	 *
+	 * @param callSite
+	 *            The plan of the call site
+	 * @param start
+	 *            When the call started
+	 * @return The watch, to cancel when the call ends
+	 */
+	Watch watch(final LoggableCallSite callSite, final long start) {
+		final Watch watch = new Watch(callSite, Thread.currentThread(), start, callSite.getLimit());
+		pending.add(watch);
+		return watch;
+	}
+
+	/**
+	 * Move the wheel every tick, until interrupted.
+	 */
+	@Override
+	public void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			final long wait = origin + (ticks + 1) * tick - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(this, wait);
+			}
+			else {
+				try {
+					this.tick(System.nanoTime());
+				}
+				catch (final RuntimeException ex) {
+					LOGGER.error("Watchdog failed", ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Number of calls in the wheel, ended or not
+	 */
+	int getWatched() {
+		return watched;
+	}
+
+	/**
+	 * Place the calls registered since the previous tick, then report the calls of the current bucket whose limit
+	 * expired, move on those that reached a checkpoint, and move to the next bucket.
+	 *
+	 * @param now
+	 *            The current time
+	 */
+	void tick(final long now) {
+		Watch watch = pending.poll();
+		while (watch != null) {
+			if (!watch.get()) {
+				this.place(watch);
+			}
+			watch = pending.poll();
+		}
+		final int index = (int) ticks & mask;
+		Watch previous = null;
+		Watch due = null;
+		watch = wheel[index];
+		while (watch != null) {
+			final Watch next = watch.next;
+			if (watch.rounds == 0 || watch.get()) {
+				if (previous == null) {
+					wheel[index] = next;
+				}
+				else {
+					previous.next = next;
+				}
+				--watched;
+				watch.next = null;
+				if (!watch.get()) {
+					watch.next = due;
+					due = watch;
+				}
+			}
+			else {
+				--watch.rounds;
+				previous = watch;
+			}
+			watch = next;
+		}
+		while (due != null) {
+			final Watch next = due.next;
+			due.next = null;
+			if (this.deadline(due) > ticks) {
+				this.place(due);
+			}
+			else if (due.compareAndSet(false, true)) {
+				this.report(due, now);
+			}
+			due = next;
+		}
+		++ticks;
+	}
+
+	/**
+	 * Place a call at its next checkpoint: as many ticks ahead as it has already run, at least one, at most its limit.
+	 */
+	private void place(final Watch watch) {
+		final long elapsed = ticks - Math.floorDiv(watch.start - origin, tick);
+		final long target = Math.max(Math.min(this.deadline(watch), ticks + Math.max(elapsed, 1L)), ticks);
+		watch.rounds = (target - ticks) / wheel.length;
+		final int index = (int) target & mask;
+		watch.next = wheel[index];
+		wheel[index] = watch;
+		++watched;
+	}
+
+	/**
+	 * @return The tick the limit of a call expires at
+	 */
+	private long deadline(final Watch watch) {
+		return Math.floorDiv(watch.deadline - origin + tick - 1, tick);
+	}
+
+	private void report(final Watch watch, final long now) {
+		final LoggableCallSite callSite = watch.callSite;
+		if (callSite.isEnabled(Loggable.Level.WARN)) {
+			final StringBuilder stack = new StringBuilder();
+			for (final StackTraceElement element : watch.thread.getStackTrace()) {
+				stack.append("\n\tat ").append(element);
+			}
+			loggableHelper.log(Loggable.Level.WARN, callSite.getLogger(),
+					"#{}(): still running after {} in thread {}, over the limit of {}{}", callSite.getMethodName(),
+					loggableHelper.toText(now - watch.start, callSite.getPrecision()), watch.thread.getName(),
+					loggableHelper.toText(watch.deadline - watch.start, callSite.getPrecision()), stack);
+		}
+	}
+
+	/**
+	 * A call being watched, set once it is either cancelled or reported.
+	 */
+	static final class Watch extends AtomicBoolean {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final long MAX_LIMIT = TimeUnit.DAYS.toNanos(365);
+
+		private final transient LoggableCallSite callSite;
+		private final transient Thread thread;
+		private final long start;
+		private final long deadline;
+		private transient long rounds;
+		private transient Watch next;
+
+		Watch(final LoggableCallSite callSite, final Thread thread, final long start, final long limit) {
+			this.callSite = callSite;
+			this.thread = thread;
+			this.start = start;
+			this.deadline = start + Math.min(limit, MAX_LIMIT);
+		}
+
+		/**
+		 * Stop watching the call, which ended.
+		 *
+		 * @return TRUE if the call was reported while running
+		 */
+		boolean cancel() {
+			return !this.compareAndSet(false, true);
+		}
+
+	}
+
+	/**
+	 * Lazy holder of the configured wheel, with its thread.
+	 */
+	private static final class Holder {
+
+		static final LoggableWatchdog INSTANCE = new LoggableWatchdog(new LoggableHelper(),
+				TimeUnit.MILLISECONDS.toNanos(Long.getLong("loggable.watchdog.tick", 10L)), Integer.getInteger(
+						"loggable.watchdog.wheel", 512));
+
+		static {
+			final Thread thread = new Thread(INSTANCE, "loggable-watchdog");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+	}
+
+}
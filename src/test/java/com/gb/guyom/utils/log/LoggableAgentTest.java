@@ -0,0 +1,129 @@
+package com.gb.guyom.utils.log;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.nio.charset.StandardCharsets;
+import java.security.ProtectionDomain;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggableAgentTest {
+
+	private static final byte[] ANNOTATED = "\u0000!Lcom/gb/guyom/utils/log/Loggable;\u0001"
+			.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] WOVEN_ELSEWHERE = ("\u0000!Lcom/gb/guyom/utils/log/Loggable;\u0001"
+			+ "\u0000\u001eorg.aspectj.weaver.WeaverState\u0001\u0000\u0017Lcom/example/AuditAspect;")
+			.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] PLAIN = "\u0000\u0010Ljava/lang/String;\u0001".getBytes(StandardCharsets.UTF_8);
+
+	private ClassFileTransformer weaver;
+
+	@Before
+	public void setup() throws Exception {
+		weaver = mock(ClassFileTransformer.class);
+		when(weaver.transform(any(ClassLoader.class), anyString(), any(Class.class), any(ProtectionDomain.class),
+				any(byte[].class))).thenReturn(new byte[] { 1 });
+	}
+
+	/**
+	 * LoggableAgent hands the classes that use Loggable over to the weaver.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void weavesClassesUsingLoggable() throws Exception {
+		final LoggableAgent agent = new LoggableAgent(weaver, null, null);
+		MatcherAssert.assertThat(agent.transform(null, "com/example/Dao", null, null, ANNOTATED), Matchers
+				.equalTo(new byte[] { 1 }));
+		MatcherAssert.assertThat(agent.transform(null, "com/example/Plain", null, null, PLAIN), Matchers.nullValue());
+		verify(weaver).transform(null, "com/example/Dao", null, null, ANNOTATED);
+		verify(weaver, never()).transform(null, "com/example/Plain", null, null, PLAIN);
+	}
+
+	/**
+	 * LoggableAgent skips the classes woven at compile time.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void skipsWovenClasses() throws Exception {
+		final LoggableAgent agent = new LoggableAgent(weaver, null, null);
+		MatcherAssert.assertThat(agent.accepts("com/gb/guyom/utils/log/LoggableTest$Foo",
+				bytes(LoggableTest.class.getName() + "$Foo")), Matchers.equalTo(false));
+	}
+
+	/**
+	 * LoggableAgent hands over the classes woven at compile time with other aspects only.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void weavesClassesWovenWithOtherAspects() throws Exception {
+		final LoggableAgent agent = new LoggableAgent(weaver, null, null);
+		MatcherAssert.assertThat(agent.accepts("com/example/Audited", WOVEN_ELSEWHERE), Matchers.equalTo(true));
+	}
+
+	/**
+	 * LoggableAgent only hands over the packages included and not excluded.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void filtersPackages() throws Exception {
+		final LoggableAgent agent = new LoggableAgent(weaver, "com.example, org.acme..*", "com.example.internal");
+		MatcherAssert.assertThat(agent.accepts("com/example/Dao", ANNOTATED), Matchers.equalTo(true));
+		MatcherAssert.assertThat(agent.accepts("com/example/sub/Dao", ANNOTATED), Matchers.equalTo(true));
+		MatcherAssert.assertThat(agent.accepts("org/acme/Dao", ANNOTATED), Matchers.equalTo(true));
+		MatcherAssert.assertThat(agent.accepts("com/examples/Dao", ANNOTATED), Matchers.equalTo(false));
+		MatcherAssert.assertThat(agent.accepts("com/example/internal/Dao", ANNOTATED), Matchers.equalTo(false));
+		MatcherAssert.assertThat(agent.accepts("org/slf4j/Dao", ANNOTATED), Matchers.equalTo(false));
+		MatcherAssert.assertThat(agent.accepts(null, ANNOTATED), Matchers.equalTo(false));
+	}
+
+	/**
+	 * LoggableAgent points the AspectJ weaver at the configuration of the library, next to the ones of the application.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void addsItsConfiguration() throws Exception {
+		MatcherAssert.assertThat(LoggableAgent.configuration(null), Matchers.equalTo(
+				"META-INF/aop-loggable.xml;META-INF/aop.xml;META-INF/aop-ajc.xml;org/aspectj/aop.xml"));
+		MatcherAssert.assertThat(LoggableAgent.configuration("META-INF/custom.xml"), Matchers.equalTo(
+				"META-INF/aop-loggable.xml;META-INF/custom.xml"));
+		MatcherAssert.assertThat(LoggableAgent.configuration("META-INF/custom.xml;META-INF/aop-loggable.xml"),
+				Matchers.equalTo("META-INF/custom.xml;META-INF/aop-loggable.xml"));
+	}
+
+	private static byte[] bytes(final String className) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = LoggableAgentTest.class.getClassLoader().getResourceAsStream(
+				className.replace('.', '/') + ".class")) {
+			final byte[] buffer = new byte[4096];
+			int read = in.read(buffer);
+			while (read >= 0) {
+				out.write(buffer, 0, read);
+				read = in.read(buffer);
+			}
+		}
+		return out.toByteArray();
+	}
+}
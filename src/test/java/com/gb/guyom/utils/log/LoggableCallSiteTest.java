@@ -0,0 +1,90 @@
+package com.gb.guyom.utils.log;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggableCallSiteTest {
+
+	private LoggableAspectHelper loggableAspectHelper;
+
+	@Before
+	public void setup() {
+		loggableAspectHelper = new LoggableAspectHelper();
+	}
+
+	/**
+	 * LoggableCallSite resolves the annotation attributes once.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void resolvesAnnotationAttributes() throws Exception {
+		final LoggableCallSite callSite = callSite("slow");
+		MatcherAssert.assertThat(callSite.getMethodName(), Matchers.equalTo("slow"));
+		MatcherAssert.assertThat(callSite.getLevel(), Matchers.equalTo(Loggable.Level.DEBUG));
+		MatcherAssert.assertThat(callSite.getLimit(), Matchers.equalTo(TimeUnit.SECONDS.toNanos(2)));
+		MatcherAssert.assertThat(callSite.getTrim(), Matchers.equalTo(10));
+		MatcherAssert.assertThat(callSite.isPrepend(), Matchers.equalTo(true));
+		MatcherAssert.assertThat(callSite.isReturnsVoid(), Matchers.equalTo(true));
+		MatcherAssert.assertThat(callSite.getSource(), Matchers.<Object> equalTo(Bar.class));
+	}
+
+	/**
+	 * LoggableCallSite uses the explicit logger name when given.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void resolvesExplicitLoggerName() throws Exception {
+		final LoggableCallSite callSite = callSite("named");
+		MatcherAssert.assertThat(callSite.getSource(), Matchers.<Object> equalTo("bar-logger"));
+		MatcherAssert.assertThat(callSite.getLogger().getName(), Matchers.equalTo("bar-logger"));
+		MatcherAssert.assertThat(callSite.isReturnsVoid(), Matchers.equalTo(false));
+	}
+
+	/**
+	 * LoggableCallSite ignores subtypes of the ignored exceptions.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void ignoresSubtypesOfIgnoredExceptions() throws Exception {
+		final LoggableCallSite callSite = callSite("failing");
+		MatcherAssert.assertThat(callSite.isIgnored(new IllegalArgumentException()), Matchers.equalTo(true));
+		MatcherAssert.assertThat(callSite.isIgnored(new NumberFormatException()), Matchers.equalTo(true));
+		MatcherAssert.assertThat(callSite.isIgnored(new IllegalStateException()), Matchers.equalTo(false));
+		MatcherAssert.assertThat(callSite("slow").isIgnored(new IllegalArgumentException()), Matchers.equalTo(false));
+	}
+
+	private LoggableCallSite callSite(final String name) throws Exception {
+		return loggableAspectHelper.callSite(Bar.class.getDeclaredMethod(name),
+				Bar.class.getDeclaredMethod(name).getAnnotation(Loggable.class));
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	private static final class Bar {
+		@Loggable(value = Loggable.Level.DEBUG, limit = 2, unit = TimeUnit.SECONDS, trim = 10, prepend = true)
+		void slow() {
+			// nothing to do
+		}
+
+		@Loggable(ignore = IllegalArgumentException.class)
+		void failing() {
+			throw new NumberFormatException();
+		}
+
+		@Loggable(name = "bar-logger")
+		String named() {
+			return "bar";
+		}
+	}
+}
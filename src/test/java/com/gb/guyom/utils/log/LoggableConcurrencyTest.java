@@ -0,0 +1,48 @@
+package com.gb.guyom.utils.log;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class LoggableConcurrencyTest {
+
+	/**
+	 * LoggableConcurrency reports the calls in flight together, not the peaks of threads that did not overlap.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void peaksCallsInFlightTogether() throws Exception {
+		final LoggableConcurrency concurrency = new LoggableConcurrency();
+		for (int count = 0; count < 32; ++count) {
+			final Thread thread = new Thread() {
+				@Override
+				public void run() {
+					concurrency.enter();
+					concurrency.exit();
+				}
+			};
+			thread.start();
+			thread.join();
+		}
+		MatcherAssert.assertThat(concurrency.getPeak(), Matchers.equalTo(1L));
+		MatcherAssert.assertThat(concurrency.getPeak(), Matchers.equalTo(0L));
+
+		concurrency.enter();
+		final Thread other = new Thread() {
+			@Override
+			public void run() {
+				concurrency.enter();
+				concurrency.exit();
+			}
+		};
+		other.start();
+		other.join();
+		MatcherAssert.assertThat(concurrency.getInFlight(), Matchers.equalTo(1L));
+		MatcherAssert.assertThat(concurrency.getPeak(), Matchers.equalTo(2L));
+		MatcherAssert.assertThat(concurrency.getPeak(), Matchers.equalTo(1L));
+		concurrency.exit();
+	}
+
+}
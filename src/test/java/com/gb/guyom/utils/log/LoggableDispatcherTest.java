@@ -0,0 +1,60 @@
+package com.gb.guyom.utils.log;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggableDispatcherTest {
+
+	private LoggableAspectHelper helper;
+	private LoggableCallSite callSite;
+	private LoggableDispatcher dispatcher;
+
+	@Before
+	public void setup() throws Exception {
+		helper = mock(LoggableAspectHelper.class);
+		callSite = new LoggableAspectHelper().callSite(Bar.class.getDeclaredMethod("find"), Bar.class
+				.getDeclaredMethod("find").getAnnotation(Loggable.class));
+		dispatcher = new LoggableDispatcher(16, 2, LoggableDispatcher.Backpressure.BLOCK);
+	}
+
+	@After
+	public void teardown() {
+		dispatcher.flush();
+	}
+
+	/**
+	 * LoggableDispatcher wakes a sleeping consumer up when an event is offered.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void wakesSleepingConsumers() throws Exception {
+		// long enough for the consumers to back off and fall asleep
+		Thread.sleep(100L);
+		dispatcher.dispatch(LoggableDispatcher.Kind.RETURNED, helper, callSite, null, null, "found", null, 1L, null,
+				null, false, 0L);
+
+		verify(helper, timeout(1000)).logReturned(eq(callSite), any(), any(Object[].class), eq("found"), eq(1L),
+				any(LoggableUsage.class), any(LoggableTree.Node.class), anyBoolean(), anyLong());
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	private static final class Bar {
+		@Loggable(async = true)
+		String find() {
+			return "found";
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.gb.guyom.utils.log;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+public class LoggableDuplicatesTest {
+
+	private LoggableHelper loggableHelper;
+	private LoggableCallSite callSite;
+
+	@Before
+	public void setup() throws Exception {
+		loggableHelper = mock(LoggableHelper.class);
+		callSite = new LoggableAspectHelper().callSite(Bar.class.getDeclaredMethod("failing"), Bar.class
+				.getDeclaredMethod("failing").getAnnotation(Loggable.class));
+	}
+
+	/**
+	 * LoggableDuplicates lets the first exception through, then counts the identical ones.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void countsIdenticalExceptions() throws Exception {
+		final LoggableDuplicates duplicates = new LoggableDuplicates(loggableHelper, 16);
+		MatcherAssert.assertThat(duplicates.first(callSite, failure(), 10L), Matchers.equalTo(true));
+		for (int count = 0; count < 5; ++count) {
+			MatcherAssert.assertThat(duplicates.first(callSite, failure(), 10L), Matchers.equalTo(false));
+		}
+		MatcherAssert.assertThat(duplicates.first(callSite, new IllegalArgumentException(), 10L),
+				Matchers.equalTo(true));
+
+		duplicates.run();
+		verify(loggableHelper).log(eq(Loggable.Level.ERROR), any(Logger.class), any(String.class), eq("failing"),
+				eq(5L), eq(IllegalStateException.class.getName()), any(), any(), any());
+	}
+
+	/**
+	 * LoggableDuplicates forgets an exception not thrown during a whole window.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void forgetsQuietExceptions() throws Exception {
+		final LoggableDuplicates duplicates = new LoggableDuplicates(loggableHelper, 16);
+		MatcherAssert.assertThat(duplicates.first(callSite, failure(), 10L), Matchers.equalTo(true));
+		duplicates.run();
+		MatcherAssert.assertThat(duplicates.first(callSite, failure(), 10L), Matchers.equalTo(true));
+		verify(loggableHelper, never()).log(any(Loggable.Level.class), any(Logger.class), any(String.class),
+				anyVararg());
+	}
+
+	/**
+	 * LoggableDuplicates logs every exception in full once its table is full.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void staysBounded() throws Exception {
+		final LoggableDuplicates duplicates = new LoggableDuplicates(loggableHelper, 2);
+		int first = 0;
+		for (int line = 0; line < 100; ++line) {
+			final IllegalStateException exp = new IllegalStateException();
+			exp.setStackTrace(new StackTraceElement[] { new StackTraceElement("Bar", "failing", "Bar.java", line) });
+			if (duplicates.first(callSite, exp, 10L)) {
+				++first;
+			}
+		}
+		MatcherAssert.assertThat(first, Matchers.equalTo(100));
+		duplicates.run();
+		verify(loggableHelper, times(0)).log(any(Loggable.Level.class), any(Logger.class), any(String.class),
+				anyVararg());
+	}
+
+	/**
+	 * LoggableDuplicates reads the stack trace of an exception only if one of the same class was already thrown out
+	 * of the call site.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void readsStackTracesOfCandidatesOnly() throws Exception {
+		final LoggableDuplicates duplicates = new LoggableDuplicates(loggableHelper, 16);
+		final Traced first = traced();
+		MatcherAssert.assertThat(duplicates.first(callSite, first, 10L), Matchers.equalTo(true));
+		MatcherAssert.assertThat(first.reads, Matchers.equalTo(0));
+
+		final Traced second = traced();
+		MatcherAssert.assertThat(duplicates.first(callSite, second, 10L), Matchers.equalTo(false));
+		MatcherAssert.assertThat(second.reads, Matchers.equalTo(1));
+	}
+
+	/**
+	 * LoggableDuplicates logs in full again an exception forgotten, and counts the next identical ones.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void remembersForgottenExceptionsAgain() throws Exception {
+		final LoggableDuplicates duplicates = new LoggableDuplicates(loggableHelper, 16);
+		MatcherAssert.assertThat(duplicates.first(callSite, failure(), 10L), Matchers.equalTo(true));
+		duplicates.run();
+		MatcherAssert.assertThat(duplicates.first(callSite, failure(), 10L), Matchers.equalTo(true));
+		MatcherAssert.assertThat(duplicates.first(callSite, failure(), 10L), Matchers.equalTo(false));
+
+		duplicates.run();
+		verify(loggableHelper).log(eq(Loggable.Level.ERROR), any(Logger.class), any(String.class), eq("failing"),
+				eq(1L), eq(IllegalStateException.class.getName()), any(), any(), any());
+	}
+
+	private static Traced traced() {
+		return new Traced();
+	}
+
+	private static IllegalStateException failure() {
+		return Bar.fail();
+	}
+
+	/**
+	 * Exception counting the reads of its stack trace.
+	 */
+	private static final class Traced extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private int reads;
+
+		@Override
+		public StackTraceElement[] getStackTrace() {
+			++reads;
+			return super.getStackTrace();
+		}
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	private static final class Bar {
+		@Loggable(deduplicate = true)
+		void failing() {
+			throw fail();
+		}
+
+		static IllegalStateException fail() {
+			return new IllegalStateException("down");
+		}
+	}
+}
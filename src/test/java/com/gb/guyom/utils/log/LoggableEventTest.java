@@ -0,0 +1,89 @@
+package com.gb.guyom.utils.log;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+public class LoggableEventTest {
+
+	private LoggableEvent event;
+
+	@Before
+	public void setup() throws Exception {
+		final LoggableCallSite callSite = new LoggableAspectHelper().callSite(Bar.class.getDeclaredMethod("find"),
+				Bar.class.getDeclaredMethod("find").getAnnotation(Loggable.class));
+		event = new LoggableEvent(callSite, LoggableEvent.Outcome.RETURNED, 1L, false, null, null, null, null);
+	}
+
+	/**
+	 * LoggableEvent matches the markers of the same name, as SLF4J markers do.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void matchesMarkersByName() throws Exception {
+		final Marker marker = MarkerFactory.getDetachedMarker(LoggableEvent.NAME);
+		MatcherAssert.assertThat(event.contains(marker), Matchers.equalTo(true));
+		MatcherAssert.assertThat(event.equals(marker), Matchers.equalTo(true));
+		MatcherAssert.assertThat(event.hashCode(), Matchers.equalTo(marker.hashCode()));
+		MatcherAssert.assertThat(marker.contains(event), Matchers.equalTo(true));
+		MatcherAssert.assertThat(event.contains(MarkerFactory.getDetachedMarker("OTHER")), Matchers.equalTo(false));
+	}
+
+	/**
+	 * LoggableEvent holds references to other markers.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void holdsReferences() throws Exception {
+		final Marker other = MarkerFactory.getDetachedMarker("OTHER");
+		event.add(other);
+		event.add(other);
+		MatcherAssert.assertThat(event.hasReferences(), Matchers.equalTo(true));
+		MatcherAssert.assertThat(event.contains(other), Matchers.equalTo(true));
+		MatcherAssert.assertThat(event.contains("OTHER"), Matchers.equalTo(true));
+		MatcherAssert.assertThat(event.toString(), Matchers.equalTo("LOGGABLE [ OTHER ]"));
+
+		MatcherAssert.assertThat(event.remove(other), Matchers.equalTo(true));
+		MatcherAssert.assertThat(event.hasReferences(), Matchers.equalTo(false));
+		MatcherAssert.assertThat(event.contains("OTHER"), Matchers.equalTo(false));
+	}
+
+	/**
+	 * LoggableEvent gives the MDC back the values it held under the keys of its fields.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void restoresMdc() throws Exception {
+		MDC.put(LoggableEvent.MDC_PREFIX + "method", "outer");
+		try {
+			final String[] previous = event.putMdc();
+			MatcherAssert.assertThat(MDC.get(LoggableEvent.MDC_PREFIX + "method"), Matchers.equalTo("find"));
+			event.removeMdc(previous);
+			MatcherAssert.assertThat(MDC.get(LoggableEvent.MDC_PREFIX + "method"), Matchers.equalTo("outer"));
+			MatcherAssert.assertThat(MDC.get(LoggableEvent.MDC_PREFIX + "class"), Matchers.nullValue());
+		}
+		finally {
+			MDC.remove(LoggableEvent.MDC_PREFIX + "method");
+		}
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	private static final class Bar {
+		@Loggable(structure = Loggable.Structure.MARKER)
+		String find() {
+			return "found";
+		}
+	}
+}
@@ -1,5 +1,11 @@
 package com.gb.guyom.utils.log;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -49,4 +55,91 @@ public class LoggableHelperTest {
 				}, 100, false),
 				Matchers.equalTo("[com.gb.guyom.utils.log.LoggableHelperTest$1 thrown java.lang.IllegalArgumentException(boom)]"));
 	}
+
+	/**
+	 * LoggableHelper can trim long texts and escape new lines.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void trimsLongTexts() throws Exception {
+		final String alpha = "abcdefghijklmnopqrstuvwxyz0123456789";
+		MatcherAssert.assertThat(loggableHelper.toText(alpha, 10, false), Matchers.equalTo("'abcd..28.."));
+		MatcherAssert.assertThat(loggableHelper.toText(alpha, 30, false),
+				Matchers.equalTo("'abcdefghijklmn..8..123456789'"));
+		MatcherAssert.assertThat(loggableHelper.toText("line\none\nline two", 12, false),
+				Matchers.equalTo("'line\\n..7..'"));
+		MatcherAssert.assertThat(loggableHelper.toText(123456789, 4, false), Matchers.equalTo("12..5.."));
+		MatcherAssert.assertThat(
+				loggableHelper.toText(new Integer[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, 20, false),
+				Matchers.equalTo("[1, 2, 3, 4, 5, 6, 7, ..5 more]"));
+	}
+
+	/**
+	 * LoggableHelper renders large collections, maps and renderable objects only as far as the trim needs.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void rendersWithinTrimBudget() throws Exception {
+		final List<Integer> large = new ArrayList<Integer>(Collections.nCopies(200000, 7));
+		MatcherAssert.assertThat(loggableHelper.toText(large, 10, false), Matchers.equalTo("[7, 7, 7, ..199997 more]"));
+		MatcherAssert.assertThat(loggableHelper.toText(large.subList(0, 3), -1, false),
+				Matchers.equalTo("[7, 7, 7]"));
+		final Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+		map.put("a", 1);
+		map.put("b", 2);
+		map.put("c", 3);
+		MatcherAssert.assertThat(loggableHelper.toText(map, -1, false), Matchers.equalTo("{'a'=1, 'b'=2, 'c'=3}"));
+		MatcherAssert.assertThat(loggableHelper.toText(map, 8, false), Matchers.equalTo("{'a'=1, ..2 more}"));
+		final BoundedRenderable renderable = new BoundedRenderable() {
+			@Override
+			public void renderTo(final LoggableSink sink) {
+				for (int pos = 0; pos < 1000 && !sink.isFull(); ++pos) {
+					sink.append('x');
+				}
+				sink.append("end");
+			}
+		};
+		MatcherAssert.assertThat(loggableHelper.toText(renderable, 5, false), Matchers.equalTo("xxxxx..3.."));
+	}
+
+	/**
+	 * LoggableHelper can build a string from a duration.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void buildsTextFromDuration() throws Exception {
+		final Object[][] triples = new Object[][] { new Object[] { 999L, 2, "999.00ns" },
+				new Object[] { 1500L, 2, "1.50\u00b5s" }, new Object[] { 1234567L, 3, "1.235ms" },
+				new Object[] { 2000123456L, 2, "2.00s" }, new Object[] { 1500L, -1, "2\u00b5s" },
+				new Object[] { 999999L, 2, "1000.00\u00b5s" }, new Object[] { 12L, 4, "12.0000ns" },
+				new Object[] { 1234567L, 8, "1.23456700ms" }, new Object[] { 2500L, 0, "3\u00b5s" }, };
+		for (final Object[] triple : triples) {
+			MatcherAssert.assertThat(loggableHelper.toText((Long) triple[0], (Integer) triple[1]),
+					Matchers.equalTo(triple[2].toString()));
+		}
+	}
+
+	/**
+	 * LoggableHelper can append a number of bytes in decimal units.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void appendsBytes() throws Exception {
+		final Object[][] triples = new Object[][] { new Object[] { 999L, 2, "999.00B" },
+				new Object[] { 1500L, 2, "1.50kB" }, new Object[] { 2500000L, 1, "2.5MB" },
+				new Object[] { 3000000000L, 0, "3GB" }, };
+		for (final Object[] triple : triples) {
+			final StringBuilder out = new StringBuilder();
+			loggableHelper.appendBytes(out, (Long) triple[0], (Integer) triple[1]);
+			MatcherAssert.assertThat(out.toString(), Matchers.equalTo(triple[2].toString()));
+		}
+	}
 }
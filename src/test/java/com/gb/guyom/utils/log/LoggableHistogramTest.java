@@ -0,0 +1,93 @@
+package com.gb.guyom.utils.log;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class LoggableHistogramTest {
+
+	/**
+	 * LoggableHistogram puts every value in a bucket whose representative value is close to it.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void bucketsValuesWithBoundedError() throws Exception {
+		for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			final long estimate = LoggableHistogram.value(LoggableHistogram.index(value));
+			MatcherAssert.assertThat((double) Math.abs(estimate - value) / value, Matchers.lessThanOrEqualTo(0.125));
+		}
+		MatcherAssert.assertThat(LoggableHistogram.index(Long.MAX_VALUE),
+				Matchers.greaterThan(LoggableHistogram.index(Long.MAX_VALUE / 2)));
+	}
+
+	/**
+	 * LoggableHistogram can estimate percentiles.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void estimatesPercentiles() throws Exception {
+		final LoggableHistogram histogram = new LoggableHistogram();
+		for (long value = 1; value <= 1000; ++value) {
+			histogram.record(value * 1000);
+		}
+		final LoggableHistogram.Snapshot snapshot = histogram.snapshot();
+		MatcherAssert.assertThat(snapshot.getCount(), Matchers.equalTo(1000L));
+		MatcherAssert.assertThat(snapshot.getMin(), Matchers.equalTo(1000L));
+		MatcherAssert.assertThat(snapshot.getMax(), Matchers.equalTo(1000000L));
+		MatcherAssert.assertThat(snapshot.getMean(), Matchers.closeTo(500500.0, 0.1));
+		MatcherAssert.assertThat((double) snapshot.getPercentile(0.5), Matchers.closeTo(500000.0, 62500.0));
+		MatcherAssert.assertThat((double) snapshot.getPercentile(0.99), Matchers.closeTo(990000.0, 123750.0));
+		MatcherAssert.assertThat(snapshot.getPercentile(1.0), Matchers.equalTo(1000000L));
+	}
+
+	/**
+	 * LoggableHistogram is empty before any value is recorded.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void startsEmpty() throws Exception {
+		final LoggableHistogram.Snapshot snapshot = new LoggableHistogram().snapshot();
+		MatcherAssert.assertThat(snapshot.getCount(), Matchers.equalTo(0L));
+		MatcherAssert.assertThat(snapshot.getMax(), Matchers.equalTo(0L));
+		MatcherAssert.assertThat(snapshot.getPercentile(0.99), Matchers.equalTo(0L));
+	}
+
+	/**
+	 * LoggableHistogram records into a single stripe until threads contend, without losing any value.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void stripesOnContentionOnly() throws Exception {
+		final LoggableHistogram histogram = new LoggableHistogram();
+		for (long value = 1; value <= 1000; ++value) {
+			histogram.record(value);
+		}
+		MatcherAssert.assertThat(histogram.getStripes(), Matchers.equalTo(1));
+
+		final Thread[] threads = new Thread[4];
+		for (int pos = 0; pos < threads.length; ++pos) {
+			threads[pos] = new Thread() {
+				@Override
+				public void run() {
+					for (int count = 0; count < 10000; ++count) {
+						histogram.record(1L);
+					}
+				}
+			};
+			threads[pos].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		MatcherAssert.assertThat(histogram.snapshot().getCount(), Matchers.equalTo(41000L));
+		MatcherAssert.assertThat(histogram.getStripes(), Matchers.lessThanOrEqualTo(4));
+	}
+}
@@ -0,0 +1,119 @@
+package com.gb.guyom.utils.log;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.aspectj.lang.Aspects;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class LoggableIndexTest {
+
+	/**
+	 * LoggableProcessor writes a line per annotated type and method.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void indexesAnnotatedElements() throws Exception {
+		final Path dir = Files.createTempDirectory("loggable");
+		final Path source = dir.resolve("Dao.java");
+		Files.write(source, ("package p;\n" //
+				+ "import com.gb.guyom.utils.log.Loggable;\n" //
+				+ "@Loggable(Loggable.Level.DEBUG)\n" //
+				+ "public class Dao {\n" //
+				+ "  @Loggable(limit = 200, histogram = true)\n" //
+				+ "  public String find(String key, int[] ids, java.util.List<String> names) { return key; }\n" //
+				+ "  public static class Row {\n" //
+				+ "    @Loggable public void save() { }\n" //
+				+ "  }\n" //
+				+ "}\n").getBytes(StandardCharsets.UTF_8));
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final int status = compiler.run(null, null, null, "-proc:only", "-processor", LoggableProcessor.class
+				.getName(), "-cp", System.getProperty("java.class.path"), "-d", dir.toString(), source.toString());
+		MatcherAssert.assertThat(status, Matchers.equalTo(0));
+
+		final List<String> lines = Files.readAllLines(dir.resolve(LoggableIndex.RESOURCE), StandardCharsets.UTF_8);
+		MatcherAssert.assertThat(lines, Matchers.contains( //
+				"method\tp.Dao\tfind\tjava.lang.String,int[],java.util.List", //
+				"method\tp.Dao$Row\tsave\t", //
+				"type\tp.Dao"));
+	}
+
+	/**
+	 * LoggableIndex plans the call sites of the index with the helper of the aspect, once, skipping what it cannot
+	 * find.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void preloadsIndexedCallSites() throws Exception {
+		final Path dir = Files.createTempDirectory("loggable");
+		final Path index = dir.resolve(LoggableIndex.RESOURCE);
+		Files.createDirectories(index.getParent());
+		Files.write(index, Arrays.asList( //
+				"type\t" + Dao.class.getName(), //
+				"method\t" + Dao.class.getName() + "\tfind\tjava.lang.String", //
+				"method\tcom.example.Missing\tfind\t", //
+				"method\t" + Dao.class.getName() + "\tmissing\t"), StandardCharsets.UTF_8);
+
+		final ClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, getClass().getClassLoader()) {
+			@Override
+			public Enumeration<URL> getResources(final String name) throws IOException {
+				return findResources(name);
+			}
+		};
+		final AtomicInteger built = new AtomicInteger();
+		// the aspect of AspectJ comes first, and preloads if ever required
+		Aspects.aspectOf(LoggableAspect.class);
+		final LoggableAspect aspect = new LoggableAspect();
+		aspect.setLoggableAspectHelper(new LoggableAspectHelper() {
+			@Override
+			public LoggableCallSite callSite(final Method method, final Loggable annotation) {
+				built.incrementAndGet();
+				return super.callSite(method, annotation);
+			}
+		});
+		MatcherAssert.assertThat(LoggableIndex.preload(aspect, loader), Matchers.equalTo(2));
+		MatcherAssert.assertThat(built.get(), Matchers.equalTo(2));
+		MatcherAssert.assertThat(aspect.methodCallSite(Dao.class.getMethod("find", String.class)).getLevel(),
+				Matchers.equalTo(Loggable.Level.INFO));
+		MatcherAssert.assertThat(aspect.classCallSite(Dao.class.getMethod("all")).getLevel(),
+				Matchers.equalTo(Loggable.Level.DEBUG));
+		MatcherAssert.assertThat(aspect.classCallSite(Dao.class.getMethod("find", String.class)),
+				Matchers.sameInstance(LoggableCallSite.NONE));
+
+		MatcherAssert.assertThat(LoggableIndex.preload(aspect, loader), Matchers.equalTo(2));
+		MatcherAssert.assertThat(built.get(), Matchers.equalTo(2));
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	@Loggable(Loggable.Level.DEBUG)
+	public static final class Dao {
+		@Loggable(Loggable.Level.INFO)
+		public String find(final String key) {
+			return key;
+		}
+
+		public List<String> all() {
+			return Arrays.asList();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.gb.guyom.utils.log;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+public class LoggableLevelCacheTest {
+
+	private final Logger logger = (Logger) LoggerFactory.getLogger("loggable-level-cache-test");
+
+	@After
+	public void teardown() {
+		logger.setLevel(null);
+	}
+
+	/**
+	 * LoggableLevelCache follows the level of its logger.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void followsLevelChanges() throws Exception {
+		logger.setLevel(Level.INFO);
+		final LoggableLevelCache cache = new LoggableLevelCache(logger);
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.DEBUG), Matchers.equalTo(false));
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.INFO), Matchers.equalTo(true));
+
+		logger.setLevel(Level.TRACE);
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.TRACE), Matchers.equalTo(true));
+
+		logger.setLevel(Level.ERROR);
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.WARN), Matchers.equalTo(false));
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.ERROR), Matchers.equalTo(true));
+	}
+
+	/**
+	 * LoggableLevelCache follows a change of level of a parent logger.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void followsParentLevelChanges() throws Exception {
+		final Logger child = (Logger) LoggerFactory.getLogger(logger.getName() + ".child");
+		logger.setLevel(Level.WARN);
+		final LoggableLevelCache cache = new LoggableLevelCache(child);
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.INFO), Matchers.equalTo(false));
+
+		logger.setLevel(Level.DEBUG);
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.INFO), Matchers.equalTo(true));
+	}
+
+	/**
+	 * LoggableLevelCache obeys a turbo filter added after its first decision, without a reset of the context.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void obeysTurboFiltersAddedLater() throws Exception {
+		logger.setLevel(Level.INFO);
+		final LoggableLevelCache cache = new LoggableLevelCache(logger);
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.DEBUG), Matchers.equalTo(false));
+
+		final TurboFilter filter = new TurboFilter() {
+			@Override
+			public FilterReply decide(final Marker marker, final Logger logger, final Level level,
+					final String format, final Object[] params, final Throwable t) {
+				return FilterReply.ACCEPT;
+			}
+		};
+		logger.getLoggerContext().addTurboFilter(filter);
+		try {
+			MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.DEBUG), Matchers.equalTo(true));
+		}
+		finally {
+			logger.getLoggerContext().getTurboFilterList().remove(filter);
+		}
+		MatcherAssert.assertThat(cache.isEnabled(Loggable.Level.DEBUG), Matchers.equalTo(false));
+	}
+}
@@ -0,0 +1,53 @@
+package com.gb.guyom.utils.log;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class LoggableLimiterTest {
+
+	/**
+	 * LoggableLimiter lets at most one second worth of calls through at once.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void limitsRate() throws Exception {
+		final LoggableLimiter limiter = limiter(1, 10);
+		int admitted = 0;
+		for (int count = 0; count < 1000; ++count) {
+			if (limiter.admit()) {
+				++admitted;
+			}
+		}
+		MatcherAssert.assertThat(admitted, Matchers.allOf(Matchers.greaterThanOrEqualTo(10),
+				Matchers.lessThanOrEqualTo(11)));
+	}
+
+	/**
+	 * LoggableLimiter samples calls.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void samplesCalls() throws Exception {
+		final LoggableLimiter limiter = limiter(0.1, -1);
+		int admitted = 0;
+		for (int count = 0; count < 10000; ++count) {
+			if (limiter.admit()) {
+				++admitted;
+			}
+		}
+		MatcherAssert.assertThat(admitted, Matchers.allOf(Matchers.greaterThan(700), Matchers.lessThan(1300)));
+		MatcherAssert.assertThat(limiter(0, -1).admit(), Matchers.equalTo(false));
+		MatcherAssert.assertThat(limiter(1, -1).admit(), Matchers.equalTo(true));
+	}
+
+	private LoggableLimiter limiter(final double sampling, final int rate) {
+		return new LoggableLimiter(new LoggableHelper(), Loggable.Level.INFO, LoggerFactory.getLogger(getClass()),
+				"test", sampling, rate);
+	}
+}
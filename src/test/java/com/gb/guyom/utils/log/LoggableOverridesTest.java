@@ -0,0 +1,113 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggableOverridesTest {
+
+	private static final String[] SIGNATURE = { String.class.getName(), String.class.getName() };
+
+	private MBeanServer server;
+	private ObjectName name;
+	private LoggableCallSite callSite;
+
+	@Before
+	public void setup() throws Exception {
+		callSite = new LoggableAspectHelper().callSite(Baz.class.getDeclaredMethod("find"), Baz.class
+				.getDeclaredMethod("find").getAnnotation(Loggable.class));
+		server = ManagementFactory.getPlatformMBeanServer();
+		name = new ObjectName("com.gb.guyom.utils.log:type=LoggableOverrides");
+	}
+
+	@After
+	public void teardown() throws Exception {
+		for (final String pattern : new String[] { Baz.class.getName(), Baz.class.getName() + "#find",
+				"*LoggableOverridesTest*" }) {
+			server.invoke(name, "removeOverride", new Object[] { pattern }, new String[] { String.class.getName() });
+		}
+	}
+
+	/**
+	 * LoggableOverrides applies the overrides set over JMX, the most specific one winning, until they are removed.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void overridesCallSitesOverJmx() throws Exception {
+		MatcherAssert.assertThat(callSite.getLevel(), Matchers.equalTo(Loggable.Level.DEBUG));
+		server.invoke(name, "setOverride", new Object[] { "*LoggableOverridesTest*", "level=ERROR, trim=5" },
+				SIGNATURE);
+		server.invoke(name, "setOverride", new Object[] { Baz.class.getName() + "#find", "level=WARN, limit=2s" },
+				SIGNATURE);
+		MatcherAssert.assertThat(callSite.getLevel(), Matchers.equalTo(Loggable.Level.WARN));
+		MatcherAssert.assertThat(callSite.getLimit(), Matchers.equalTo(TimeUnit.SECONDS.toNanos(2)));
+		MatcherAssert.assertThat(callSite.getTrim(), Matchers.equalTo(5));
+		MatcherAssert.assertThat((String[]) server.getAttribute(name, "Overrides"), Matchers.hasItemInArray(Baz.class
+				.getName() + "#find = level=WARN, limit=2s"));
+
+		server.invoke(name, "removeOverride", new Object[] { Baz.class.getName() + "#find" },
+				new String[] { String.class.getName() });
+		MatcherAssert.assertThat(callSite.getLevel(), Matchers.equalTo(Loggable.Level.ERROR));
+		MatcherAssert.assertThat(callSite.getLimit(), Matchers.equalTo(TimeUnit.MILLISECONDS.toNanos(10)));
+	}
+
+	/**
+	 * LoggableOverrides can switch a call site off and sample it.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void switchesCallSitesOff() throws Exception {
+		MatcherAssert.assertThat(callSite.isOn(), Matchers.equalTo(true));
+		MatcherAssert.assertThat(callSite.getLimiter(), Matchers.nullValue());
+		server.invoke(name, "setOverride", new Object[] { Baz.class.getName(), "enabled=false, sampling=0" },
+				SIGNATURE);
+		MatcherAssert.assertThat(callSite.isOn(), Matchers.equalTo(false));
+		MatcherAssert.assertThat(callSite.getLimiter(), Matchers.notNullValue());
+		MatcherAssert.assertThat(callSite.admit(), Matchers.equalTo(false));
+	}
+
+	/**
+	 * LoggableOverrides parses durations with their unit and rejects unknown settings.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void parsesSettings() throws Exception {
+		MatcherAssert.assertThat(LoggableOverrides.Rule.parse("x", "limit=150").limit,
+				Matchers.equalTo(TimeUnit.MILLISECONDS.toNanos(150)));
+		MatcherAssert.assertThat(LoggableOverrides.Rule.parse("x", "limit=20us").limit,
+				Matchers.equalTo(TimeUnit.MICROSECONDS.toNanos(20)));
+		MatcherAssert.assertThat(LoggableOverrides.Rule.parse("x", "level=info").level,
+				Matchers.equalTo(Loggable.Level.INFO));
+		try {
+			LoggableOverrides.Rule.parse("x", "colour=red");
+			MatcherAssert.assertThat("exception expected", false);
+		}
+		catch (final IllegalArgumentException ex) {
+			MatcherAssert.assertThat(ex.getMessage(), Matchers.containsString("colour"));
+		}
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	private static final class Baz {
+		@Loggable(value = Loggable.Level.DEBUG, limit = 10)
+		void find() {
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.gb.guyom.utils.log;
+
+import java.util.Optional;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggableRenderersTest {
+
+	private LoggableHelper loggableHelper;
+
+	@Before
+	public void setup() {
+		loggableHelper = new LoggableHelper();
+	}
+
+	/**
+	 * LoggableRenderers renders primitive arrays without falling back to the exception text.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void rendersPrimitiveArrays() throws Exception {
+		MatcherAssert.assertThat(loggableHelper.toText(new int[] { 1, -2, 3 }, -1, false),
+				Matchers.equalTo("[1, -2, 3]"));
+		MatcherAssert.assertThat(loggableHelper.toText(new long[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12 }, 20,
+				false), Matchers.equalTo("[1, 2, 3, 4, 5, 6, 7, ..5 more]"));
+		MatcherAssert.assertThat(loggableHelper.toText(new double[] { 1.5, 2 }, -1, false),
+				Matchers.equalTo("[1.5, 2.0]"));
+		MatcherAssert.assertThat(loggableHelper.toText(new boolean[] { true, false }, -1, false),
+				Matchers.equalTo("[true, false]"));
+		MatcherAssert.assertThat(loggableHelper.toText(new char[] { 'a', ' ', 'b' }, -1, false),
+				Matchers.equalTo("'a b'"));
+		MatcherAssert.assertThat(loggableHelper.toText(new int[0][], -1, false), Matchers.equalTo("[]"));
+	}
+
+	/**
+	 * LoggableRenderers renders byte arrays as their length and hexadecimal content.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void rendersBytesAsHex() throws Exception {
+		MatcherAssert.assertThat(loggableHelper.toText(new byte[] { 0, 10, -1 }, -1, false),
+				Matchers.equalTo("byte[3] 000aff"));
+		MatcherAssert.assertThat(loggableHelper.toText(new byte[1000], 14, false),
+				Matchers.equalTo("byte[1000] 0000..998 more"));
+		MatcherAssert.assertThat(loggableHelper.toText(new byte[0], -1, false), Matchers.equalTo("byte[0]"));
+	}
+
+	/**
+	 * LoggableRenderers renders texts, boxed primitives and optionals without their toString().
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void rendersBuiltinTypes() throws Exception {
+		MatcherAssert.assertThat(loggableHelper.toText(new StringBuilder("a b"), -1, false),
+				Matchers.equalTo("'a b'"));
+		MatcherAssert.assertThat(loggableHelper.toText(true, -1, false), Matchers.equalTo("true"));
+		MatcherAssert.assertThat(loggableHelper.toText('x', -1, false), Matchers.equalTo("x"));
+		MatcherAssert.assertThat(loggableHelper.toText(2.5d, -1, false), Matchers.equalTo("2.5"));
+		MatcherAssert.assertThat(loggableHelper.toText(Optional.of("x"), -1, false),
+				Matchers.equalTo("Optional['x']"));
+		MatcherAssert.assertThat(loggableHelper.toText(Optional.empty(), -1, false),
+				Matchers.equalTo("Optional.empty"));
+	}
+
+	/**
+	 * LoggableRenderers uses the renderers found by the service loader.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void usesDiscoveredRenderers() throws Exception {
+		MatcherAssert.assertThat(loggableHelper.toText(new Point(1, 2), -1, false), Matchers.equalTo("(1,2)"));
+	}
+
+	/**
+	 * LoggableRenderers uses the most specific registered renderer, until it is unregistered.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void usesRegisteredRenderers() throws Exception {
+		final LoggableRenderer<CharSequence> renderer = new LoggableRenderer<CharSequence>() {
+			@Override
+			public Class<CharSequence> getType() {
+				return CharSequence.class;
+			}
+
+			@Override
+			public void render(final CharSequence value, final LoggableSink sink) {
+				sink.append("chars:").append(value);
+			}
+		};
+		LoggableRenderers.register(renderer);
+		try {
+			MatcherAssert.assertThat(loggableHelper.toText("abcdef", 8, false), Matchers.equalTo("chars:ab..4.."));
+			MatcherAssert.assertThat(loggableHelper.toText(new Point(1, 2), -1, false), Matchers.equalTo("(1,2)"));
+		}
+		finally {
+			LoggableRenderers.unregister(renderer);
+		}
+		MatcherAssert.assertThat(loggableHelper.toText("abcdef", 6, false), Matchers.equalTo("'ab..2.."));
+	}
+
+	/**
+	 * Dummy value, for tests above.
+	 */
+	public static final class Point {
+		private final int x;
+		private final int y;
+
+		Point(final int x, final int y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * Renderer of points, listed in META-INF/services.
+	 */
+	public static final class PointRenderer implements LoggableRenderer<Point> {
+		@Override
+		public Class<Point> getType() {
+			return Point.class;
+		}
+
+		@Override
+		public void render(final Point value, final LoggableSink sink) {
+			sink.append('(').append(value.x).append(',').append(value.y).append(')');
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.gb.guyom.utils.log;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import javax.management.MBeanServer;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class LoggableStatsTest {
+
+	/**
+	 * LoggableStats unregisters the MBeans of the methods of a discarded class loader, and only those.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void unregistersClassLoaders() throws Exception {
+		final URL classes = LoggableStatsTest.class.getProtectionDomain().getCodeSource().getLocation();
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes }, null)) {
+			final Method isolated = loader.loadClass(Plain.class.getName()).getMethod("run");
+			final Method shared = Plain.class.getMethod("stop");
+			LoggableStats.forMethod(isolated);
+			LoggableConcurrency.forMethod(isolated);
+			LoggableStats.forMethod(shared);
+			MatcherAssert.assertThat(server.isRegistered(LoggableStats.objectName(isolated)), Matchers.equalTo(true));
+
+			LoggableStats.unregister(loader);
+			MatcherAssert.assertThat(server.isRegistered(LoggableStats.objectName(isolated)), Matchers.equalTo(false));
+			MatcherAssert.assertThat(server.isRegistered(LoggableStats.objectName("LoggableConcurrency", isolated)),
+					Matchers.equalTo(false));
+			MatcherAssert.assertThat(server.isRegistered(LoggableStats.objectName(shared)), Matchers.equalTo(true));
+		}
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	public static final class Plain {
+		public void run() {
+			// nothing to do
+		}
+
+		public void stop() {
+			// nothing to do
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package com.gb.guyom.utils.log;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LoggableSummaryTest {
+
+	private LoggableHelper loggableHelper;
+	private LoggableSummary summary;
+
+	@Before
+	public void setup() {
+		loggableHelper = mock(LoggableHelper.class);
+		summary = new LoggableSummary(loggableHelper, Loggable.Level.INFO, LoggerFactory.getLogger(getClass()),
+				"test", 2, TimeUnit.SECONDS.toNanos(10));
+	}
+
+	/**
+	 * LoggableSummary counts the calls of every thread, without losing any.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void sumsCallsOfAllThreads() throws Exception {
+		final Thread[] threads = new Thread[4];
+		for (int pos = 0; pos < threads.length; ++pos) {
+			threads[pos] = new Thread() {
+				@Override
+				public void run() {
+					for (int count = 0; count < 1000; ++count) {
+						summary.record(count, count % 100 == 0);
+					}
+					summary.recordError(5000L);
+				}
+			};
+			threads[pos].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		summary.run();
+		verify(loggableHelper).log(eq(Loggable.Level.INFO), any(Logger.class), any(String.class), eq("test"),
+				eq(4004L), eq(4L), eq(40L), any(), any(), any(), any());
+		verify(loggableHelper).toText(0L, 2);
+		verify(loggableHelper).toText(5000L, 2);
+	}
+
+	/**
+	 * LoggableSummary reports nothing for an idle method, nor twice the same calls.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void skipsIdleMethods() throws Exception {
+		summary.run();
+		verify(loggableHelper, never()).log(any(Loggable.Level.class), any(Logger.class), any(String.class),
+				anyVararg());
+
+		summary.record(10L, false);
+		summary.run();
+		summary.run();
+		verify(loggableHelper).log(eq(Loggable.Level.INFO), any(Logger.class), any(String.class), eq("test"),
+				eq(1L), eq(0L), eq(0L), any(), any(), any(), any());
+	}
+}
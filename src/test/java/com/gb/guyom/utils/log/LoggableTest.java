@@ -2,12 +2,26 @@ package com.gb.guyom.utils.log;
 
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.aspectj.lang.Aspects;
 import org.junit.After;
@@ -19,9 +33,13 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Captor;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
@@ -190,6 +208,359 @@ public final class LoggableTest {
 		logger.detachAppender(appender);
 	}
 
+	/**
+	 * Loggable doesn't render arguments of calls that are not logged.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void doesntRenderDisabledCalls() throws Exception {
+		final AtomicInteger rendered = new AtomicInteger();
+		new LoggableTest.Foo().traced(new Object() {
+			@Override
+			public String toString() {
+				rendered.incrementAndGet();
+				return "rendered";
+			}
+		});
+		Assert.assertEquals(0, rendered.get());
+	}
+
+	/**
+	 * Loggable can log on a background thread, under the name and the MDC of the calling thread.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsAsynchronously() throws Exception {
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) {
+				((ILoggingEvent) invocation.getArguments()[0]).prepareForDeferredProcessing();
+				return null;
+			}
+		}).when(mockAppender).doAppend(Mockito.any(ILoggingEvent.class));
+		final String thread = Thread.currentThread().getName();
+		MDC.put("request", "42");
+		try {
+			new LoggableTest.Foo().later("async");
+		}
+		finally {
+			MDC.remove("request");
+		}
+
+		verify(mockAppender, timeout(5000)).doAppend(argThat(new ArgumentMatcher<ILoggingEvent>() {
+			@Override
+			public boolean matches(Object argument) {
+				final ILoggingEvent event = (ILoggingEvent) argument;
+				return event.getFormattedMessage().startsWith("#later('async'): 'cnysa' in ")
+						&& event.getThreadName().equals(thread)
+						&& "42".equals(event.getMDCPropertyMap().get("request"));
+			}
+		}));
+	}
+
+	/**
+	 * Loggable can expose latency statistics over JMX.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void exposesLatencyStatistics() throws Exception {
+		final LoggableTest.Foo foo = new LoggableTest.Foo();
+		for (int count = 0; count < 3; ++count) {
+			foo.measured();
+		}
+
+		final ObjectName name = LoggableStats.objectName(LoggableTest.Foo.class.getMethod("measured"));
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Assert.assertEquals(3L, server.getAttribute(name, "Count"));
+		Assert.assertEquals(0L, server.getAttribute(name, "ErrorCount"));
+	}
+
+	/**
+	 * Loggable names the MBeans of overloads apart, even if their parameter types have the same simple name.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void namesOverloadsApart() throws Exception {
+		final ObjectName util = LoggableStats.objectName(LoggableTest.Dates.class.getDeclaredMethod("at",
+				java.util.Date.class));
+		final ObjectName sql = LoggableStats.objectName(LoggableTest.Dates.class.getDeclaredMethod("at",
+				java.sql.Date.class));
+		Assert.assertNotEquals(util, sql);
+		Assert.assertEquals("\"at(java.util.Date)\"", util.getKeyProperty("method"));
+	}
+
+	/**
+	 * Loggable can count the calls in flight, expose them over JMX and write them in the lines of slow calls.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void countsConcurrentCalls() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(2);
+		final Thread other = new Thread() {
+			@Override
+			public void run() {
+				new LoggableTest.Foo().crowded(latch);
+			}
+		};
+		other.start();
+		new LoggableTest.Foo().crowded(latch);
+		other.join();
+
+		final ObjectName name = LoggableStats.objectName("LoggableConcurrency", LoggableTest.Foo.class.getMethod(
+				"crowded", CountDownLatch.class));
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Assert.assertEquals(0L, server.getAttribute(name, "InFlight"));
+		Assert.assertEquals(2L, server.getAttribute(name, "Peak"));
+		Assert.assertEquals(0L, server.getAttribute(name, "Peak"));
+		verify(mockAppender, Mockito.times(2)).doAppend(argThat(new ArgumentMatcher<ILoggingEvent>() {
+			@Override
+			public boolean matches(Object argument) {
+				final ILoggingEvent event = (ILoggingEvent) argument;
+				return event.getFormattedMessage().matches(
+						"#crowded\\(\\.\\.\\.\\): in .* \\(too slow, [12] concurrent\\)");
+			}
+		}));
+	}
+
+	/**
+	 * Loggable can log a call still running past its limit, then its return.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsCallsStillRunning() throws Exception {
+		new LoggableTest.Foo().hanging();
+
+		verify(mockAppender).doAppend(argThat(new ArgumentMatcher<ILoggingEvent>() {
+			@Override
+			public boolean matches(Object argument) {
+				final ILoggingEvent event = (ILoggingEvent) argument;
+				return event.getFormattedMessage().startsWith("#hanging(): still running after ")
+						&& event.getFormattedMessage().contains("\tat java.lang.Thread.sleep")
+						&& event.getThreadName().equals("loggable-watchdog");
+			}
+		}));
+		verify(mockAppender).doAppend(argThat(new ArgumentMatcher<ILoggingEvent>() {
+			@Override
+			public boolean matches(Object argument) {
+				final ILoggingEvent event = (ILoggingEvent) argument;
+				return event.getFormattedMessage().startsWith("#hanging(): in ")
+						&& event.getFormattedMessage().endsWith("(too slow!)");
+			}
+		}));
+	}
+
+	/**
+	 * Loggable can log only a part of the calls.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsSampledCalls() throws Exception {
+		final LoggableTest.Foo foo = new LoggableTest.Foo();
+		for (int count = 0; count < 10; ++count) {
+			foo.sampled();
+		}
+		verify(mockAppender, never()).doAppend(Mockito.any(ILoggingEvent.class));
+	}
+
+	/**
+	 * Loggable can log exceptions created without a stack trace.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsExceptionsWithoutStackTrace() throws Exception {
+		try {
+			new LoggableTest.Foo().throwStackless();
+			Assert.fail("exception expected");
+		}
+		catch (final IllegalStateException ex) {
+			// expected
+		}
+
+		verify(mockAppender).doAppend(argThat(new ArgumentMatcher<ILoggingEvent>() {
+			@Override
+			public boolean matches(Object argument) {
+				return ((ILoggingEvent) argument).getFormattedMessage().startsWith(
+						"#throwStackless(): thrown java.lang.IllegalStateException(stackless) out of <unknown> in ");
+			}
+		}));
+	}
+
+	/**
+	 * Loggable can attach the fields of a log line as a marker.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsStructuredFields() throws Exception {
+		new LoggableTest.Foo().structured("hello");
+
+		verify(mockAppender).doAppend(captorLoggingEvent.capture());
+		Assert.assertEquals(ch.qos.logback.classic.Level.INFO, captorLoggingEvent.getValue().getLevel());
+		final LoggableEvent event = (LoggableEvent) captorLoggingEvent.getValue().getMarker();
+		Assert.assertEquals(LoggableTest.Foo.class.getName(), event.getClassName());
+		Assert.assertEquals("structured", event.getMethodName());
+		Assert.assertEquals(LoggableEvent.Outcome.RETURNED, event.getOutcome());
+		Assert.assertEquals("'hello'", event.getArgs());
+		Assert.assertEquals("5", event.getResult());
+		assertTrue(event.getDuration() >= 0);
+		assertTrue(event.getFields().get("durationNanos") instanceof Long);
+	}
+
+	/**
+	 * Loggable can put the fields of a log line in the MDC while it is logged.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsFieldsInMdc() throws Exception {
+		final List<Map<String, String>> mdcs = new ArrayList<Map<String, String>>();
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(final InvocationOnMock invocation) {
+				mdcs.add(((ILoggingEvent) invocation.getArguments()[0]).getMDCPropertyMap());
+				return null;
+			}
+		}).when(mockAppender).doAppend(Mockito.any(ILoggingEvent.class));
+
+		try {
+			new LoggableTest.Foo().inMdc();
+			Assert.fail("exception expected");
+		}
+		catch (final IllegalStateException ex) {
+			// expected
+		}
+
+		Assert.assertEquals(1, mdcs.size());
+		Assert.assertEquals("inMdc", mdcs.get(0).get("loggable.method"));
+		Assert.assertEquals("THROWN", mdcs.get(0).get("loggable.outcome"));
+		Assert.assertEquals(IllegalStateException.class.getName(), mdcs.get(0).get("loggable.exception"));
+		Assert.assertNull(MDC.get("loggable.method"));
+	}
+
+	/**
+	 * Loggable can time a returned CompletionStage until it completes.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsCompletionOfStages() throws Exception {
+		final CompletableFuture<String> future = new CompletableFuture<String>();
+		new LoggableTest.Foo().pending(future);
+		verify(mockAppender, never()).doAppend(Mockito.any(ILoggingEvent.class));
+
+		TimeUnit.MILLISECONDS.sleep(20L);
+		future.complete("done");
+		verify(mockAppender).doAppend(captorLoggingEvent.capture());
+		final ILoggingEvent event = captorLoggingEvent.getValue();
+		assertTrue(event.getFormattedMessage().startsWith("#pending(...): 'done' in "));
+		assertTrue(event.getFormattedMessage().endsWith("(too slow!)"));
+		Assert.assertEquals(ch.qos.logback.classic.Level.WARN, event.getLevel());
+	}
+
+	/**
+	 * Loggable can log the exception a returned CompletionStage completes with, unless it is ignored.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsFailureOfStages() throws Exception {
+		final CompletableFuture<String> ignored = new CompletableFuture<String>();
+		new LoggableTest.Foo().failing(ignored);
+		ignored.completeExceptionally(new IllegalArgumentException());
+		verify(mockAppender, never()).doAppend(Mockito.any(ILoggingEvent.class));
+
+		final CompletableFuture<String> failed = new CompletableFuture<String>();
+		new LoggableTest.Foo().failing(failed);
+		failed.completeExceptionally(new IllegalStateException("late"));
+		verify(mockAppender).doAppend(argThat(new ArgumentMatcher<ILoggingEvent>() {
+			@Override
+			public boolean matches(Object argument) {
+				return ((ILoggingEvent) argument).getFormattedMessage().startsWith(
+						"#failing(...): thrown java.lang.IllegalStateException(late) out of ");
+			}
+		}));
+	}
+
+	/**
+	 * Loggable can log the CPU time and the bytes allocated by a call, after its duration and in its fields.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsCpuAndAllocations() throws Exception {
+		new LoggableTest.Foo().allocating(1000);
+
+		verify(mockAppender).doAppend(captorLoggingEvent.capture());
+		final String message = captorLoggingEvent.getValue().getFormattedMessage();
+		assertTrue(message, message.matches("#allocating\\(1000\\): 1000 in \\S+ \\[cpu \\S+, \\S+ allocated\\]"));
+		final LoggableEvent event = (LoggableEvent) captorLoggingEvent.getValue().getMarker();
+		assertTrue(event.getCpu() >= 0);
+		assertTrue(event.getAllocated() >= 4000);
+		assertTrue(event.getFields().get("allocatedBytes") instanceof Long);
+	}
+
+	/**
+	 * Loggable can log the calls made during a call as a tree, in a single line.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void logsCallTrees() throws Exception {
+		new LoggableTest.Foo().tree(3);
+
+		verify(mockAppender).doAppend(captorLoggingEvent.capture());
+		final String message = captorLoggingEvent.getValue().getFormattedMessage();
+		assertTrue(message, message.matches("#tree\\(3\\): 5 in \\S+ \\{self \\S+: leaf \u00d73 \u03a3\\S+, "
+				+ "branch \\S+ \\{self \\S+: leaf \\S+\\}\\}"));
+	}
+
+	/**
+	 * Loggable still logs the slow returns and the summaries of the calls nested in a call tree.
+	 * 
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void summarizesCallsNestedInTrees() throws Exception {
+		new LoggableTest.Foo().treeOfSlow();
+
+		verify(mockAppender, Mockito.times(2)).doAppend(captorLoggingEvent.capture());
+		final ILoggingEvent slow = captorLoggingEvent.getAllValues().get(0);
+		assertTrue(slow.getFormattedMessage(), slow.getFormattedMessage().matches(
+				"#slowLeaf\\((\\.\\.\\.)?\\): in \\S+ \\(too slow!\\)"));
+		Assert.assertEquals(ch.qos.logback.classic.Level.WARN, slow.getLevel());
+		final String tree = captorLoggingEvent.getAllValues().get(1).getFormattedMessage();
+		assertTrue(tree, tree.matches("#treeOfSlow\\(\\): in \\S+ \\{self \\S+: slowLeaf \\S+, counted \\S+\\}"));
+
+		Aspects.aspectOf(LoggableAspect.class).methodCallSite(LoggableTest.Foo.class.getMethod("counted"))
+				.getSummary().run();
+		verify(mockAppender, Mockito.times(3)).doAppend(captorLoggingEvent.capture());
+		final String summary = captorLoggingEvent.getValue().getFormattedMessage();
+		assertTrue(summary, summary.startsWith("#counted(): 1 calls, 0 errors, 0 too slow in the last "));
+	}
+
 	/**
 	 * Parent class, without logging.
 	 */
@@ -204,6 +575,21 @@ public final class LoggableTest {
 		}
 	}
 
+	/**
+	 * Overloads whose parameter types have the same simple name.
+	 */
+	private static final class Dates {
+		@Loggable(histogram = true)
+		void at(final java.util.Date date) {
+			// nothing to do
+		}
+
+		@Loggable(histogram = true)
+		void at(final java.sql.Date date) {
+			// nothing to do
+		}
+	}
+
 	/**
 	 * Dummy class, for tests above.
 	 */
@@ -285,6 +671,77 @@ public final class LoggableTest {
 			return text.substring(text.length() - 1);
 		}
 
+		/**
+		 * Revert string, logged on a background thread.
+		 * 
+		 * @param text
+		 *            Some text
+		 * @return Reverted text
+		 */
+		@Loggable(value = Loggable.Level.INFO, async = true)
+		public String later(final String text) {
+			return new StringBuffer(text).reverse().toString();
+		}
+
+		/**
+		 * Method measured but not logged.
+		 */
+		@Loggable(value = Loggable.Level.TRACE, histogram = true)
+		public void measured() {
+			// nothing to do
+		}
+
+		/**
+		 * Method called concurrently, too slow.
+		 * 
+		 * @param latch
+		 *            Counted down by each call, awaited by each call
+		 */
+		@Loggable(value = Loggable.Level.INFO, skipArgs = true, limit = 1, unit = TimeUnit.MILLISECONDS,
+				concurrency = true)
+		public void crowded(final CountDownLatch latch) {
+			latch.countDown();
+			try {
+				latch.await();
+				TimeUnit.MILLISECONDS.sleep(5L);
+			}
+			catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Method running past its limit.
+		 */
+		@Loggable(value = Loggable.Level.INFO, limit = 20, unit = TimeUnit.MILLISECONDS, watchdog = true)
+		public void hanging() {
+			try {
+				TimeUnit.MILLISECONDS.sleep(200L);
+			}
+			catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Method never sampled.
+		 */
+		@Loggable(value = Loggable.Level.INFO, sampling = 0)
+		public void sampled() {
+			// nothing to do
+		}
+
+		/**
+		 * Method logged at a level disabled in tests.
+		 * 
+		 * @param arg
+		 *            Any argument
+		 */
+		@Loggable(value = Loggable.Level.TRACE, prepend = true)
+		public void traced(final Object arg) {
+			// nothing to do
+		}
+
 		/**
 		 * Private static method.
 		 * 
@@ -294,6 +751,138 @@ public final class LoggableTest {
 			return "some static text";
 		}
 
+		/**
+		 * Length of a text, logged with its fields.
+		 * 
+		 * @param text
+		 *            Some text
+		 * @return Its length
+		 */
+		@Loggable(value = Loggable.Level.INFO, structure = Loggable.Structure.MARKER)
+		public int structured(final String text) {
+			return text.length();
+		}
+
+		/**
+		 * Allocate an array, measuring the CPU time and the bytes allocated.
+		 * 
+		 * @param size
+		 *            Size of the array
+		 * @return Its length
+		 */
+		@Loggable(value = Loggable.Level.INFO, structure = Loggable.Structure.MARKER, cpu = true, allocated = true)
+		public int allocating(final int size) {
+			return new int[size].length;
+		}
+
+		/**
+		 * Call other loggable methods, logged as a tree.
+		 * 
+		 * @param times
+		 *            Number of calls to the leaf
+		 * @return The sum of their results
+		 */
+		@Loggable(value = Loggable.Level.INFO, tree = true)
+		public int tree(final int times) {
+			int sum = 0;
+			for (int time = 0; time < times; ++time) {
+				sum += this.leaf();
+			}
+			return sum + this.branch();
+		}
+
+		/**
+		 * Call a slow method and a summarized one, logged as a tree.
+		 */
+		@Loggable(value = Loggable.Level.INFO, tree = true)
+		public void treeOfSlow() {
+			this.slowLeaf();
+			this.counted();
+		}
+
+		/**
+		 * Take longer than the limit.
+		 */
+		@Loggable(value = Loggable.Level.INFO, limit = 1, unit = TimeUnit.MILLISECONDS)
+		public void slowLeaf() {
+			try {
+				TimeUnit.MILLISECONDS.sleep(5L);
+			}
+			catch (final InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Summarized every minute.
+		 */
+		@Loggable(value = Loggable.Level.INFO, summary = 60)
+		public void counted() {
+			// nothing
+		}
+
+		/**
+		 * Call the leaf.
+		 * 
+		 * @return Its result, twice
+		 */
+		@Loggable(Loggable.Level.INFO)
+		public int branch() {
+			return this.leaf() * 2;
+		}
+
+		/**
+		 * The leaf of the tree.
+		 * 
+		 * @return One
+		 */
+		@Loggable(Loggable.Level.INFO)
+		public int leaf() {
+			return 1;
+		}
+
+		/**
+		 * Always throw, logged with its fields in the MDC.
+		 */
+		@Loggable(structure = Loggable.Structure.MDC)
+		public void inMdc() {
+			throw new IllegalStateException();
+		}
+
+		/**
+		 * Return the given stage.
+		 * 
+		 * @param future
+		 *            The stage
+		 * @return The same stage
+		 */
+		@Loggable(value = Loggable.Level.INFO, skipArgs = true, limit = 10, unit = TimeUnit.MILLISECONDS)
+		public CompletionStage<String> pending(final CompletableFuture<String> future) {
+			return future;
+		}
+
+		/**
+		 * Return a stage depending on the given one.
+		 * 
+		 * @param future
+		 *            The stage
+		 * @return A dependent stage
+		 */
+		@Loggable(value = Loggable.Level.INFO, skipArgs = true, ignore = IllegalArgumentException.class)
+		public CompletableFuture<String> failing(final CompletableFuture<String> future) {
+			return future.thenApply(Function.<String> identity());
+		}
+
+		/**
+		 * Always throw an exception without stack trace.
+		 */
+		@Loggable
+		public void throwStackless() {
+			final IllegalStateException exception = new IllegalStateException("stackless");
+			exception.setStackTrace(new StackTraceElement[0]);
+			throw exception;
+		}
+
 		/**
 		 * Always throw.
 		 */
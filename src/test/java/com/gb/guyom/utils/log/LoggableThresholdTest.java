@@ -0,0 +1,45 @@
+package com.gb.guyom.utils.log;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class LoggableThresholdTest {
+
+	/**
+	 * LoggableThreshold flags nothing during warm-up.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void flagsNothingDuringWarmup() throws Exception {
+		final LoggableThreshold threshold = new LoggableThreshold(0.99, 2, 500, 0);
+		for (int count = 0; count < 499; ++count) {
+			MatcherAssert.assertThat(threshold.isSlow(count % 2 == 0 ? 1000 : TimeUnit.SECONDS.toNanos(10)),
+					Matchers.equalTo(false));
+		}
+		threshold.recompute();
+		MatcherAssert.assertThat(threshold.getThreshold(), Matchers.equalTo(Long.MAX_VALUE));
+	}
+
+	/**
+	 * LoggableThreshold flags calls far above the observed percentile.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void flagsOutliers() throws Exception {
+		final LoggableThreshold threshold = new LoggableThreshold(0.99, 2, 100, 0);
+		for (int count = 0; count < 1000; ++count) {
+			threshold.isSlow(1000 + count);
+		}
+		threshold.recompute();
+		MatcherAssert.assertThat((double) threshold.getThreshold(), Matchers.closeTo(4000, 500));
+		MatcherAssert.assertThat(threshold.isSlow(3000), Matchers.equalTo(false));
+		MatcherAssert.assertThat(threshold.isSlow(10000), Matchers.equalTo(true));
+	}
+}
@@ -0,0 +1,129 @@
+package com.gb.guyom.utils.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoggableTraceTest {
+
+	private Path file;
+
+	@Before
+	public void setup() throws Exception {
+		file = Files.createTempFile("loggable", ".trace");
+	}
+
+	@After
+	public void teardown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * LoggableTrace records calls that LoggableTraceDecoder writes back as CSV.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void decodesRecordedCalls() throws Exception {
+		final LoggableTrace trace = new LoggableTrace(file, 4, LoggableTrace.CHUNK_HEADER + 4 * LoggableTrace.RECORD,
+				256);
+		final int find = trace.define(callSite("find"));
+		final long start = System.nanoTime();
+		trace.record(find, start, 1500L, null);
+		trace.record(find, start, 2500L, new IllegalStateException());
+
+		final String[] lines = decode(LoggableTraceDecoder.Format.CSV).split("\r?\n");
+		MatcherAssert.assertThat(lines.length, Matchers.equalTo(3));
+		MatcherAssert.assertThat(lines[1], Matchers.endsWith(Bar.class.getName() + "#find,1500,RETURNED,"));
+		MatcherAssert.assertThat(lines[2], Matchers.endsWith(Bar.class.getName()
+				+ "#find,2500,THROWN,java.lang.IllegalStateException"));
+	}
+
+	/**
+	 * LoggableTrace overwrites the oldest chunks, and LoggableTraceDecoder sums up the calls left per method.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void rotatesChunks() throws Exception {
+		final LoggableTrace trace = new LoggableTrace(file, 2, LoggableTrace.CHUNK_HEADER + 4 * LoggableTrace.RECORD,
+				256);
+		final int find = trace.define(callSite("find"));
+		final int save = trace.define(callSite("save"));
+		final long start = System.nanoTime();
+		for (int count = 1; count <= 10; ++count) {
+			trace.record(find, start, count * 1000L, null);
+		}
+		trace.record(save, start, 50000L, new IllegalStateException());
+
+		final String[] lines = decode(LoggableTraceDecoder.Format.STATS).split("\r?\n");
+		MatcherAssert.assertThat(lines.length, Matchers.equalTo(2));
+		MatcherAssert.assertThat(lines[0], Matchers.startsWith(Bar.class.getName()
+				+ "#save: 1 calls, 1 errors, total 50.00"));
+		MatcherAssert.assertThat(lines[1], Matchers.startsWith(Bar.class.getName()
+				+ "#find: 6 calls, 0 errors, total 45.00"));
+	}
+
+	/**
+	 * LoggableTrace counts the chunks taken over while their thread was writing into them.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void countsOverruns() throws Exception {
+		final LoggableTrace trace = new LoggableTrace(file, 1, LoggableTrace.CHUNK_HEADER + 4 * LoggableTrace.RECORD,
+				256);
+		final int find = trace.define(callSite("find"));
+		final long start = System.nanoTime();
+		trace.record(find, start, 1000L, null);
+		final Thread other = new Thread() {
+			@Override
+			public void run() {
+				trace.record(find, start, 2000L, null);
+			}
+		};
+		other.start();
+		other.join();
+		MatcherAssert.assertThat(trace.getOverruns(), Matchers.equalTo(0L));
+
+		trace.record(find, start, 3000L, null);
+		MatcherAssert.assertThat(trace.getOverruns(), Matchers.equalTo(1L));
+	}
+
+	private String decode(final LoggableTraceDecoder.Format format) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new LoggableTraceDecoder(file).decode(format, new PrintStream(out, true, "UTF-8"));
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private LoggableCallSite callSite(final String name) throws Exception {
+		return new LoggableAspectHelper().callSite(Bar.class.getDeclaredMethod(name), Bar.class.getDeclaredMethod(
+				name).getAnnotation(Loggable.class));
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	private static final class Bar {
+		@Loggable
+		void find() {
+			// nothing to do
+		}
+
+		@Loggable
+		void save() {
+			// nothing to do
+		}
+	}
+}
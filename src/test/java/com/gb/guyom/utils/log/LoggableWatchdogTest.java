@@ -0,0 +1,124 @@
+package com.gb.guyom.utils.log;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+public class LoggableWatchdogTest {
+
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1L);
+
+	private LoggableHelper loggableHelper;
+	private LoggableCallSite callSite;
+	private LoggableWatchdog watchdog;
+
+	@Before
+	public void setup() throws Exception {
+		loggableHelper = mock(LoggableHelper.class);
+		callSite = new LoggableAspectHelper().callSite(Bar.class.getDeclaredMethod("hanging"), Bar.class
+				.getDeclaredMethod("hanging").getAnnotation(Loggable.class));
+		watchdog = new LoggableWatchdog(loggableHelper, TICK, 8);
+	}
+
+	/**
+	 * LoggableWatchdog reports a call still running past its limit, with its thread.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void reportsExpiredCalls() throws Exception {
+		final long now = System.nanoTime();
+		final LoggableWatchdog.Watch watch = watchdog.watch(callSite, now - TimeUnit.SECONDS.toNanos(1L));
+		watchdog.tick(now);
+
+		verify(loggableHelper).log(eq(Loggable.Level.WARN), any(Logger.class), any(String.class), eq("hanging"),
+				any(), eq(Thread.currentThread().getName()), any(), any());
+		MatcherAssert.assertThat(watch.cancel(), Matchers.equalTo(true));
+	}
+
+	/**
+	 * LoggableWatchdog does not report a call cancelled in time.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void ignoresCancelledCalls() throws Exception {
+		final long now = System.nanoTime();
+		final LoggableWatchdog.Watch watch = watchdog.watch(callSite, now - TimeUnit.SECONDS.toNanos(1L));
+		MatcherAssert.assertThat(watch.cancel(), Matchers.equalTo(false));
+		watchdog.tick(now);
+
+		verify(loggableHelper, never()).log(any(Loggable.Level.class), any(Logger.class), any(String.class),
+				anyVararg());
+	}
+
+	/**
+	 * LoggableWatchdog waits for as many turns of the wheel as the limit needs.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void waitsForTheLimit() throws Exception {
+		final long now = System.nanoTime();
+		final LoggableWatchdog.Watch watch = watchdog.watch(callSite, now);
+		for (int count = 0; count < 40; ++count) {
+			watchdog.tick(now + count * TICK);
+		}
+		verify(loggableHelper, never()).log(any(Loggable.Level.class), any(Logger.class), any(String.class),
+				anyVararg());
+		MatcherAssert.assertThat(watch.cancel(), Matchers.equalTo(false));
+	}
+
+	/**
+	 * LoggableWatchdog drops a call that ended long before its limit, and keeps checking one still running.
+	 *
+	 * @throws Exception
+	 *             If something goes wrong
+	 */
+	@Test
+	public void dropsEndedCallsEarly() throws Exception {
+		final long now = System.nanoTime();
+		final LoggableWatchdog.Watch ended = watchdog.watch(callSite, now);
+		final LoggableWatchdog.Watch running = watchdog.watch(callSite, now);
+		watchdog.tick(now);
+		MatcherAssert.assertThat(watchdog.getWatched(), Matchers.equalTo(2));
+
+		MatcherAssert.assertThat(ended.cancel(), Matchers.equalTo(false));
+		for (int count = 1; count < 3; ++count) {
+			watchdog.tick(now + count * TICK);
+		}
+		MatcherAssert.assertThat(watchdog.getWatched(), Matchers.equalTo(1));
+
+		for (int count = 3; count < 60; ++count) {
+			watchdog.tick(now + count * TICK);
+		}
+		verify(loggableHelper).log(eq(Loggable.Level.WARN), any(Logger.class), any(String.class), eq("hanging"),
+				any(), eq(Thread.currentThread().getName()), any(), any());
+		MatcherAssert.assertThat(watchdog.getWatched(), Matchers.equalTo(0));
+		MatcherAssert.assertThat(running.cancel(), Matchers.equalTo(true));
+	}
+
+	/**
+	 * Dummy class, for tests above.
+	 */
+	private static final class Bar {
+		@Loggable(watchdog = true, limit = 50, unit = TimeUnit.MILLISECONDS)
+		void hanging() {
+			// nothing to do
+		}
+	}
+}